@@ -21,6 +21,11 @@ import com.google.common.annotations.VisibleForTesting;
 import com.tencent.polaris.api.pojo.ServiceKey;
 import com.tencent.polaris.client.api.SDKContext;
 import com.tencent.polaris.grpc.interceptor.PolarisClientInterceptor;
+import com.tencent.polaris.grpc.loadbalance.AsyncCallResultReporter;
+import com.tencent.polaris.grpc.loadbalance.AsyncCallResultReporter.OverflowPolicy;
+import com.tencent.polaris.grpc.loadbalance.LoadBalanceConfig;
+import com.tencent.polaris.grpc.loadbalance.LoadBalanceStrategy;
+import com.tencent.polaris.grpc.loadbalance.OutlierDetectionConfig;
 import com.tencent.polaris.grpc.loadbalance.PolarisLoadBalancerFactory;
 import com.tencent.polaris.grpc.resolver.PolarisNameResolverFactory;
 import com.tencent.polaris.grpc.util.JvmHookHelper;
@@ -38,6 +43,8 @@ import javax.annotation.Nullable;
 import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Base64;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
@@ -65,6 +72,10 @@ public class PolarisManagedChannelBuilder extends ManagedChannelBuilder<PolarisM
 
     private final ServiceKey sourceService;
 
+    private final LoadBalanceConfig loadBalanceConfig = new LoadBalanceConfig();
+
+    private Map<String, ?> serviceConfig;
+
     /**
      * follow {@link ManagedChannelBuilder#forTarget(String)}
      *
@@ -295,7 +306,164 @@ public class PolarisManagedChannelBuilder extends ManagedChannelBuilder<PolarisM
     }
 
     public PolarisManagedChannelBuilder defaultServiceConfig(@Nullable Map<String, ?> serviceConfig) {
-        this.builder.defaultServiceConfig(serviceConfig);
+        this.serviceConfig = serviceConfig;
+        return this;
+    }
+
+    /**
+     * 设置客户端本地负载均衡策略, 默认为 {@link LoadBalanceStrategy#POLARIS}, 即使用北极星 SDK 配置的负载均衡插件
+     *
+     * @param strategy {@link LoadBalanceStrategy}
+     * @return {@link PolarisManagedChannelBuilder}
+     */
+    public PolarisManagedChannelBuilder loadBalanceStrategy(LoadBalanceStrategy strategy) {
+        this.loadBalanceConfig.setStrategy(strategy);
+        return this;
+    }
+
+    /**
+     * 设置路由结果缓存, maxSize 小于等于 0 时关闭缓存
+     *
+     * @param maxSize 每个 picker 最多缓存的路由结果数量
+     * @param expire  缓存项的过期时间
+     * @param unit    时间单位
+     * @return {@link PolarisManagedChannelBuilder}
+     */
+    public PolarisManagedChannelBuilder routeCache(int maxSize, long expire, TimeUnit unit) {
+        this.loadBalanceConfig.setRouteCacheSize(maxSize);
+        this.loadBalanceConfig.setRouteCacheExpireMills(unit.toMillis(expire));
+        return this;
+    }
+
+    /**
+     * 设置 {@link LoadBalanceStrategy#PEAK_EWMA} 延迟的衰减时间窗口, 窗口越小对延迟变化越敏感
+     *
+     * @param decay 衰减时间窗口
+     * @param unit  时间单位
+     * @return {@link PolarisManagedChannelBuilder}
+     */
+    public PolarisManagedChannelBuilder peakEwmaDecay(long decay, TimeUnit unit) {
+        this.loadBalanceConfig.setPeakEwmaDecayMills(unit.toMillis(decay));
+        return this;
+    }
+
+    /**
+     * 设置一致性哈希负载均衡从哪个请求头中获取哈希 key, 调用时也可以通过 {@link
+     * com.tencent.polaris.grpc.util.Common#HASH_KEY} 在 {@link io.grpc.CallOptions} 中直接指定
+     *
+     * @param header 请求头名称
+     * @return {@link PolarisManagedChannelBuilder}
+     */
+    public PolarisManagedChannelBuilder hashKeyHeader(String header) {
+        this.loadBalanceConfig.setHashKeyHeader(header);
+        return this;
+    }
+
+    /**
+     * 开启就近访问, 优先访问同园区的实例, 其次是同可用区, 同地域的实例
+     *
+     * @param region         主调方所在地域
+     * @param zone           主调方所在可用区
+     * @param campus         主调方所在园区
+     * @param spillThreshold 近端健康实例占比低于该阈值时向更远的层级溢出, 取值 0 ~ 1
+     * @return {@link PolarisManagedChannelBuilder}
+     */
+    public PolarisManagedChannelBuilder locality(String region, String zone, String campus, double spillThreshold) {
+        this.loadBalanceConfig.setRegion(region);
+        this.loadBalanceConfig.setZone(zone);
+        this.loadBalanceConfig.setCampus(campus);
+        this.loadBalanceConfig.setLocalitySpillThreshold(spillThreshold);
+        return this;
+    }
+
+    /**
+     * 开启确定性子集, 每个客户端只与 size 个实例建立连接, 子集由客户端标识决定, 默认使用 pid@hostname
+     *
+     * @param size 子集大小
+     * @return {@link PolarisManagedChannelBuilder}
+     */
+    public PolarisManagedChannelBuilder subset(int size) {
+        return subset(size, null);
+    }
+
+    /**
+     * 开启确定性子集, 每个客户端只与 size 个实例建立连接
+     *
+     * @param size     子集大小
+     * @param clientId 客户端标识, 相同标识的客户端选择相同的子集
+     * @return {@link PolarisManagedChannelBuilder}
+     */
+    public PolarisManagedChannelBuilder subset(int size, String clientId) {
+        this.loadBalanceConfig.setSubsetSize(size);
+        this.loadBalanceConfig.setSubsetClientId(clientId);
+        return this;
+    }
+
+    /**
+     * 开启懒连接, 只保持 warmPoolSize 个实例的连接, 其他实例在被选中时才建立连接, 超过 idleTimeout 没有请求的连接会被关闭
+     *
+     * @param warmPoolSize 最少保持的连接数
+     * @param idleTimeout  连接空闲关闭时间
+     * @param unit         时间单位
+     * @return {@link PolarisManagedChannelBuilder}
+     */
+    public PolarisManagedChannelBuilder lazyConnect(int warmPoolSize, long idleTimeout, TimeUnit unit) {
+        this.loadBalanceConfig.setLazyConnect(true);
+        this.loadBalanceConfig.setWarmPoolSize(warmPoolSize);
+        this.loadBalanceConfig.setConnectionIdleTimeoutMills(unit.toMillis(idleTimeout));
+        return this;
+    }
+
+    /**
+     * 开启新实例预热, 实例首次连接成功后的 window 时间内权重线性增长到配置的权重
+     *
+     * @param window 预热时间窗口
+     * @param unit   时间单位
+     * @return {@link PolarisManagedChannelBuilder}
+     */
+    public PolarisManagedChannelBuilder slowStart(long window, TimeUnit unit) {
+        this.loadBalanceConfig.setSlowStartWindowMills(unit.toMillis(window));
+        return this;
+    }
+
+    /**
+     * 开启新实例预热
+     *
+     * @param window           预热时间窗口
+     * @param unit             时间单位
+     * @param aggression       预热曲线, 有效权重为 (t / window) ^ (1 / aggression), 1 为线性增长
+     * @param minWeightPercent 预热开始时的最小权重比例, 取值 0 ~ 1
+     * @return {@link PolarisManagedChannelBuilder}
+     */
+    public PolarisManagedChannelBuilder slowStart(long window, TimeUnit unit, double aggression,
+            double minWeightPercent) {
+        this.loadBalanceConfig.setSlowStartWindowMills(unit.toMillis(window));
+        this.loadBalanceConfig.setSlowStartAggression(aggression);
+        this.loadBalanceConfig.setSlowStartMinWeightPercent(minWeightPercent);
+        return this;
+    }
+
+    /**
+     * 开启客户端本地离群检测, 连续失败, 成功率或者延迟明显偏离其他实例的实例会被临时摘除
+     *
+     * @param config {@link OutlierDetectionConfig}
+     * @return {@link PolarisManagedChannelBuilder}
+     */
+    public PolarisManagedChannelBuilder outlierDetection(OutlierDetectionConfig config) {
+        this.loadBalanceConfig.setOutlierDetection(config);
+        return this;
+    }
+
+    /**
+     * 设置调用结果异步上报队列。进程内所有 channel 共享同一个上报队列, 只有在第一次发起调用之前设置才会生效
+     *
+     * @param capacity   队列容量, 会向上取整为 2 的幂
+     * @param policy     队列满时的处理策略 {@link OverflowPolicy}
+     * @param sampleRate {@link OverflowPolicy#SAMPLE} 策略下成功调用结果的采样率, 取值 0 ~ 1
+     * @return {@link PolarisManagedChannelBuilder}
+     */
+    public PolarisManagedChannelBuilder callResultReport(int capacity, OverflowPolicy policy, double sampleRate) {
+        AsyncCallResultReporter.configure(capacity, policy, sampleRate);
         return this;
     }
 
@@ -311,9 +479,26 @@ public class PolarisManagedChannelBuilder extends ManagedChannelBuilder<PolarisM
         }
         this.builder.intercept(interceptors);
         this.builder.defaultLoadBalancingPolicy(LOADBALANCER_PROVIDER);
+        this.builder.defaultServiceConfig(buildServiceConfig());
         return builder.build();
     }
 
+    /**
+     * 北极星负载均衡的参数通过 service config 中的 loadBalancingConfig 传递给 {@link
+     * com.tencent.polaris.grpc.loadbalance.PolarisLoadBalancerProvider}, 用户自行设置了 loadBalancingConfig 时以用户的为准
+     */
+    private Map<String, ?> buildServiceConfig() {
+        Map<String, Object> config = new HashMap<>();
+        if (Objects.nonNull(serviceConfig)) {
+            config.putAll(serviceConfig);
+        }
+        if (!config.containsKey("loadBalancingConfig")) {
+            config.put("loadBalancingConfig", Collections.singletonList(
+                    Collections.singletonMap(LOADBALANCER_PROVIDER, loadBalanceConfig.toRawConfig())));
+        }
+        return config;
+    }
+
     private static String buildUrl(String target, ServiceKey sourceService) {
         if (Objects.isNull(sourceService)) {
             return target;
@@ -0,0 +1,304 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import com.tencent.polaris.api.exception.PolarisException;
+import com.tencent.polaris.api.rpc.ServiceCallResult;
+import com.tencent.polaris.grpc.util.ClientCallInfo;
+import com.tencent.polaris.grpc.util.JvmHookHelper;
+import io.grpc.Status;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 异步上报调用结果。{@link PolarisClientStreamTracer} 将调用结果写入一个有界无锁的多生产者单消费者环形队列,
+ * 由一个后台线程逐条调用 {@link com.tencent.polaris.api.core.ConsumerAPI#updateServiceCallResult(ServiceCallResult)},
+ * 避免在 gRPC 的回调线程上执行 SDK 的统计逻辑。队列满时按照 {@link OverflowPolicy} 处理。
+ * <p>
+ * SDK 只提供单次调用结果的上报接口, 熔断以及统计都依赖每一次调用的结果, 合并相同维度的调用结果会改变熔断的判断,
+ * 因此这里只做异步化, 不做聚合
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public final class AsyncCallResultReporter {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AsyncCallResultReporter.class);
+
+    static final int DEFAULT_CAPACITY = 1 << 16;
+
+    /**
+     * 单次取出的最大数量, 取完一轮之后检查是否需要退出
+     */
+    private static final int DRAIN_LIMIT = 1024;
+
+    /**
+     * 队列为空时后台线程挂起, 由生产者在队列从空变为非空时唤醒, 这里的超时只是兜底
+     */
+    private static final long IDLE_PARK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final Object LOCK = new Object();
+
+    private static volatile AsyncCallResultReporter INSTANCE;
+
+    private static int configCapacity = DEFAULT_CAPACITY;
+
+    private static OverflowPolicy configPolicy = OverflowPolicy.DROP;
+
+    private static double configSampleRate = 0.1;
+
+    /**
+     * 队列满时的处理策略
+     */
+    public enum OverflowPolicy {
+
+        /**
+         * 队列满时丢弃新的调用结果
+         */
+        DROP,
+
+        /**
+         * 队列使用超过 3/4 时, 成功的调用结果按照采样率写入, 失败的调用结果总是写入, 队列满时丢弃
+         */
+        SAMPLE,
+    }
+
+    private final int mask;
+
+    private final Slot[] slots;
+
+    private final AtomicLongArray sequences;
+
+    private final AtomicLong tail = new AtomicLong();
+
+    private volatile long head;
+
+    private final int highWatermark;
+
+    private final OverflowPolicy policy;
+
+    private final double sampleRate;
+
+    private final LongAdder dropped = new LongAdder();
+
+    private final LongAdder sampledOut = new LongAdder();
+
+    private final LongAdder reported = new LongAdder();
+
+    private final Thread worker;
+
+    private volatile boolean running = true;
+
+    private AsyncCallResultReporter(int capacity, OverflowPolicy policy, double sampleRate) {
+        this(capacity, policy, sampleRate, true);
+    }
+
+    /**
+     * @param startWorker 是否启动后台上报线程, 不启动时由调用方通过 {@link #drain(int)} 取出调用结果
+     */
+    AsyncCallResultReporter(int capacity, OverflowPolicy policy, double sampleRate, boolean startWorker) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        this.mask = size - 1;
+        this.slots = new Slot[size];
+        this.sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot();
+            sequences.set(i, i);
+        }
+        this.highWatermark = size - (size >> 2);
+        this.policy = policy;
+        this.sampleRate = sampleRate;
+        this.worker = new Thread(this::run, "polaris-grpc-call-result-reporter");
+        this.worker.setDaemon(true);
+        if (startWorker) {
+            this.worker.start();
+        }
+    }
+
+    /**
+     * 设置异步上报的参数, 需要在第一次发起调用之前设置, 之后的设置不再生效
+     *
+     * @param capacity   队列容量, 会向上取整为 2 的幂
+     * @param policy     {@link OverflowPolicy}
+     * @param sampleRate {@link OverflowPolicy#SAMPLE} 策略下成功调用结果的采样率, 取值 0 ~ 1
+     */
+    public static void configure(int capacity, OverflowPolicy policy, double sampleRate) {
+        synchronized (LOCK) {
+            if (INSTANCE != null) {
+                LOG.warn("[grpc-polaris] call result reporter already started, ignore configure");
+                return;
+            }
+            configCapacity = capacity;
+            configPolicy = policy;
+            configSampleRate = sampleRate;
+        }
+    }
+
+    public static AsyncCallResultReporter getInstance() {
+        AsyncCallResultReporter reporter = INSTANCE;
+        if (reporter != null) {
+            return reporter;
+        }
+        synchronized (LOCK) {
+            if (INSTANCE == null) {
+                INSTANCE = new AsyncCallResultReporter(configCapacity, configPolicy, configSampleRate);
+                JvmHookHelper.addShutdownHook(INSTANCE::close);
+            }
+            return INSTANCE;
+        }
+    }
+
+    /**
+     * 提交一次调用结果, 不会阻塞
+     *
+     * @param info       调用信息
+     * @param code       grpc 状态码
+     * @param delayNanos 调用耗时
+     * @return 是否写入队列
+     */
+    boolean report(ClientCallInfo info, Status.Code code, long delayNanos) {
+        if (policy == OverflowPolicy.SAMPLE && code == Status.Code.OK && tail.get() - head >= highWatermark
+                && ThreadLocalRandom.current().nextDouble() >= sampleRate) {
+            sampledOut.increment();
+            return false;
+        }
+        for (;;) {
+            long t = tail.get();
+            int index = (int) (t & mask);
+            long diff = sequences.get(index) - t;
+            if (diff == 0) {
+                if (tail.compareAndSet(t, t + 1)) {
+                    Slot slot = slots[index];
+                    slot.info = info;
+                    slot.code = code;
+                    slot.delayNanos = delayNanos;
+                    // 这里需要 volatile 写, 保证与下面读取 head 的顺序, 否则可能错过唤醒
+                    sequences.set(index, t + 1);
+                    // 写入的是队首元素说明后台线程可能已经挂起, 唤醒后台线程
+                    if (t == head) {
+                        LockSupport.unpark(worker);
+                    }
+                    return true;
+                }
+            } else if (diff < 0) {
+                dropped.increment();
+                return false;
+            }
+        }
+    }
+
+    /**
+     * @return 由于队列满被丢弃的调用结果数量
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    /**
+     * @return 由于采样没有上报的成功调用结果数量
+     */
+    public long getSampledOut() {
+        return sampledOut.sum();
+    }
+
+    /**
+     * @return 已经上报的调用结果数量
+     */
+    public long getReported() {
+        return reported.sum();
+    }
+
+    private void run() {
+        while (running) {
+            if (drain(DRAIN_LIMIT) == 0) {
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+            }
+        }
+        // 退出前把队列中剩余的结果上报完
+        while (drain(DRAIN_LIMIT) > 0) {
+            // noop
+        }
+    }
+
+    int drain(int max) {
+        int count = 0;
+        long h = head;
+        while (count < max) {
+            int index = (int) (h & mask);
+            if (sequences.get(index) != h + 1) {
+                break;
+            }
+            Slot slot = slots[index];
+            ClientCallInfo info = slot.info;
+            Status.Code code = slot.code;
+            long delayNanos = slot.delayNanos;
+            slot.info = null;
+            sequences.lazySet(index, h + mask + 1);
+            h++;
+            head = h;
+            count++;
+            doReport(info, code, delayNanos);
+        }
+        return count;
+    }
+
+    private void doReport(ClientCallInfo info, Status.Code code, long delayNanos) {
+        ServiceCallResult result = new ServiceCallResult();
+        result.setHost(info.getInstance().getHost());
+        result.setPort(info.getInstance().getPort());
+        result.setMethod(info.getMethod());
+        result.setNamespace(info.getTargetNamespace());
+        result.setService(info.getTargetService());
+        result.setRetStatus(PolarisClientStreamTracer.retStatus(code));
+        result.setRetCode(code.value());
+        result.setDelay(TimeUnit.NANOSECONDS.toMillis(delayNanos));
+        try {
+            info.getConsumerAPI().updateServiceCallResult(result);
+            reported.increment();
+        } catch (PolarisException e) {
+            LOG.error("[grpc-polaris] do report invoke call ret fail", e);
+        } catch (RuntimeException e) {
+            LOG.error("[grpc-polaris] do report invoke call ret unexpected error", e);
+        }
+    }
+
+    void close() {
+        running = false;
+        LockSupport.unpark(worker);
+        try {
+            worker.join(TimeUnit.SECONDS.toMillis(3));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static final class Slot {
+
+        private ClientCallInfo info;
+
+        private Status.Code code;
+
+        private long delayNanos;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.grpc.util.Common;
+import io.grpc.LoadBalancer.PickSubchannelArgs;
+import io.grpc.Metadata;
+import io.grpc.Metadata.Key;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Objects;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 一致性哈希负载均衡的基类, 哈希 key 优先取 {@link io.grpc.CallOptions} 中的 {@link Common#HASH_KEY},
+ * 其次取配置的请求头 {@link LoadBalanceConfig#getHashKeyHeader()}; 都没有时退化为随机选择
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+abstract class ConsistentHashLoadBalancer extends LocalLoadBalancer {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    private final Key<String> headerKey;
+
+    ConsistentHashLoadBalancer(PolarisSubChannel[] channels, LoadBalanceConfig config) {
+        super(channels);
+        String header = config.getHashKeyHeader();
+        this.headerKey = StringUtils.isBlank(header) ? null : Key.of(header, Metadata.ASCII_STRING_MARSHALLER);
+    }
+
+    @Override
+    final PolarisSubChannel choose(PickSubchannelArgs args) {
+        String hashKey = args.getCallOptions().getOption(Common.HASH_KEY);
+        if (Objects.isNull(hashKey) && Objects.nonNull(headerKey)) {
+            hashKey = args.getHeaders().get(headerKey);
+        }
+        if (Objects.isNull(hashKey)) {
+            return channels[ThreadLocalRandom.current().nextInt(channels.length)];
+        }
+        return select(hash(hashKey));
+    }
+
+    /**
+     * 根据哈希值选择实例
+     *
+     * @param hash 哈希 key 的 64 位哈希值
+     * @return 选中的实例
+     */
+    abstract PolarisSubChannel select(long hash);
+
+    static long hash(String value) {
+        return HASH_FUNCTION.hashString(value, StandardCharsets.UTF_8).asLong();
+    }
+
+    /**
+     * 实例在哈希环上的标识, 只与地址相关, 保证不同客户端计算出相同的结果
+     */
+    static String identity(PolarisSubChannel channel) {
+        return channel.getHost() + ":" + channel.getPort();
+    }
+}
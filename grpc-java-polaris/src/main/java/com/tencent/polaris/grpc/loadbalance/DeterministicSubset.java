@@ -0,0 +1,101 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.tencent.polaris.api.pojo.Instance;
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.grpc.util.Common;
+import io.grpc.EquivalentAddressGroup;
+
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * 基于 rendezvous hash 的确定性子集选择: 每个实例以 hash(clientId, 实例地址) 打分, 客户端只连接分数最高的 K 个实例。
+ * 不同客户端的打分相互独立, 因此连接会均匀地分散到所有实例上; 实例上下线时只有被移除的实例或者新实例挤掉的那一个实例会发生变化
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class DeterministicSubset {
+
+    private static final HashFunction HASH_FUNCTION = Hashing.murmur3_128();
+
+    /**
+     * 没有设置 clientId 时使用 pid@hostname, 同一个进程内连接同一个服务的多个 channel 选择相同的子集
+     */
+    private static final String DEFAULT_CLIENT_ID = ManagementFactory.getRuntimeMXBean().getName();
+
+    private DeterministicSubset() {
+    }
+
+    /**
+     * 选择子集
+     *
+     * @param servers  服务发现返回的全部实例
+     * @param size     子集大小, 小于等于 0 时不开启
+     * @param clientId 客户端标识, 为空时使用 pid@hostname
+     * @return 子集
+     */
+    static List<EquivalentAddressGroup> select(List<EquivalentAddressGroup> servers, int size, String clientId) {
+        if (size <= 0 || servers.size() <= size) {
+            return servers;
+        }
+        final String id = StringUtils.isBlank(clientId) ? DEFAULT_CLIENT_ID : clientId;
+        Scored[] scored = new Scored[servers.size()];
+        for (int i = 0; i < scored.length; i++) {
+            EquivalentAddressGroup server = servers.get(i);
+            long score = HASH_FUNCTION.newHasher()
+                    .putString(id, StandardCharsets.UTF_8)
+                    .putString(identity(server), StandardCharsets.UTF_8)
+                    .hash().asLong();
+            scored[i] = new Scored(server, score);
+        }
+        Arrays.sort(scored, Comparator.comparingLong((Scored s) -> s.score).reversed());
+        List<EquivalentAddressGroup> subset = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            subset.add(scored[i].server);
+        }
+        return subset;
+    }
+
+    private static String identity(EquivalentAddressGroup server) {
+        Instance instance = server.getAttributes().get(Common.INSTANCE_KEY);
+        if (Objects.nonNull(instance)) {
+            return instance.getHost() + ":" + instance.getPort();
+        }
+        return server.getAddresses().toString();
+    }
+
+    private static final class Scored {
+
+        private final EquivalentAddressGroup server;
+
+        private final long score;
+
+        private Scored(EquivalentAddressGroup server, long score) {
+            this.server = server;
+            this.score = score;
+        }
+    }
+}
@@ -0,0 +1,48 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import io.grpc.LoadBalancer.PickSubchannelArgs;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 最少在途请求的 power of two choices: 每次随机选取两个不同的实例, 选择在途请求数更少的一个。
+ * 在途请求数由 {@link PolarisClientStreamTracer} 在 stream 创建与关闭时维护, 参见 {@link PolarisSubChannel#getOutstandingRequests()}
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class LeastRequestLoadBalancer extends LocalLoadBalancer {
+
+    LeastRequestLoadBalancer(PolarisSubChannel[] channels) {
+        super(channels);
+    }
+
+    @Override
+    PolarisSubChannel choose(PickSubchannelArgs args) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int size = channels.length;
+        int first = random.nextInt(size);
+        int second = random.nextInt(size - 1);
+        if (second >= first) {
+            second++;
+        }
+        PolarisSubChannel a = channels[first];
+        PolarisSubChannel b = channels[second];
+        return b.getOutstandingRequests() < a.getOutstandingRequests() ? b : a;
+    }
+}
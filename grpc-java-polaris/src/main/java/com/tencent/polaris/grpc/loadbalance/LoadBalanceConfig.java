@@ -0,0 +1,299 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import java.util.Map;
+import java.util.Objects;
+import shade.polaris.com.google.gson.Gson;
+
+/**
+ * {@link PolarisLoadBalancer} 的配置, 通过 service config 中 polaris 策略的 loadBalancingConfig 传递给每一个 channel
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class LoadBalanceConfig {
+
+    private static final Gson GSON = new Gson();
+
+    static final int DEFAULT_WARM_POOL_SIZE = 2;
+
+    static final long DEFAULT_CONNECTION_IDLE_TIMEOUT_MILLS = 5 * 60 * 1000;
+
+    private LoadBalanceStrategy strategy = LoadBalanceStrategy.POLARIS;
+
+    private int routeCacheSize = RouteResultCache.DEFAULT_MAX_SIZE;
+
+    private long routeCacheExpireMills = RouteResultCache.DEFAULT_EXPIRE_MILLS;
+
+    private long peakEwmaDecayMills = PeakEwma.DEFAULT_DECAY_MILLS;
+
+    private String hashKeyHeader;
+
+    private int hashRingSize = RingHashLoadBalancer.DEFAULT_RING_SIZE;
+
+    private int maglevTableSize = MaglevLoadBalancer.DEFAULT_TABLE_SIZE;
+
+    private String region;
+
+    private String zone;
+
+    private String campus;
+
+    private double localitySpillThreshold = LocalityPartitions.DEFAULT_SPILL_THRESHOLD;
+
+    private int subsetSize;
+
+    private String subsetClientId;
+
+    private boolean lazyConnect;
+
+    private int warmPoolSize = DEFAULT_WARM_POOL_SIZE;
+
+    private long connectionIdleTimeoutMills = DEFAULT_CONNECTION_IDLE_TIMEOUT_MILLS;
+
+    private long slowStartWindowMills;
+
+    private double slowStartAggression = SlowStart.DEFAULT_AGGRESSION;
+
+    private double slowStartMinWeightPercent = SlowStart.DEFAULT_MIN_WEIGHT_PERCENT;
+
+    private OutlierDetectionConfig outlierDetection;
+
+    public LoadBalanceStrategy getStrategy() {
+        return Objects.isNull(strategy) ? LoadBalanceStrategy.POLARIS : strategy;
+    }
+
+    public void setStrategy(LoadBalanceStrategy strategy) {
+        this.strategy = strategy;
+    }
+
+    public int getRouteCacheSize() {
+        return routeCacheSize;
+    }
+
+    public void setRouteCacheSize(int routeCacheSize) {
+        this.routeCacheSize = routeCacheSize;
+    }
+
+    public long getRouteCacheExpireMills() {
+        return routeCacheExpireMills;
+    }
+
+    public void setRouteCacheExpireMills(long routeCacheExpireMills) {
+        this.routeCacheExpireMills = routeCacheExpireMills;
+    }
+
+    public long getPeakEwmaDecayMills() {
+        return peakEwmaDecayMills;
+    }
+
+    public void setPeakEwmaDecayMills(long peakEwmaDecayMills) {
+        this.peakEwmaDecayMills = peakEwmaDecayMills;
+    }
+
+    public String getHashKeyHeader() {
+        return hashKeyHeader;
+    }
+
+    public void setHashKeyHeader(String hashKeyHeader) {
+        this.hashKeyHeader = hashKeyHeader;
+    }
+
+    public int getHashRingSize() {
+        return hashRingSize;
+    }
+
+    public void setHashRingSize(int hashRingSize) {
+        this.hashRingSize = hashRingSize;
+    }
+
+    public int getMaglevTableSize() {
+        return maglevTableSize;
+    }
+
+    public void setMaglevTableSize(int maglevTableSize) {
+        this.maglevTableSize = maglevTableSize;
+    }
+
+    /**
+     * @return 主调方所在地域, 为空时不开启就近访问
+     */
+    public String getRegion() {
+        return region;
+    }
+
+    public void setRegion(String region) {
+        this.region = region;
+    }
+
+    public String getZone() {
+        return zone;
+    }
+
+    public void setZone(String zone) {
+        this.zone = zone;
+    }
+
+    public String getCampus() {
+        return campus;
+    }
+
+    public void setCampus(String campus) {
+        this.campus = campus;
+    }
+
+    public double getLocalitySpillThreshold() {
+        return localitySpillThreshold;
+    }
+
+    public void setLocalitySpillThreshold(double localitySpillThreshold) {
+        this.localitySpillThreshold = localitySpillThreshold;
+    }
+
+    /**
+     * @return 每个客户端最多连接的实例数, 小于等于 0 时连接全部实例
+     */
+    public int getSubsetSize() {
+        return subsetSize;
+    }
+
+    public void setSubsetSize(int subsetSize) {
+        this.subsetSize = subsetSize;
+    }
+
+    public String getSubsetClientId() {
+        return subsetClientId;
+    }
+
+    public void setSubsetClientId(String subsetClientId) {
+        this.subsetClientId = subsetClientId;
+    }
+
+    /**
+     * @return 是否开启懒连接, 开启后只保持 warmPoolSize 个连接, 其他实例被选中时才建立连接
+     */
+    public boolean isLazyConnect() {
+        return lazyConnect;
+    }
+
+    public void setLazyConnect(boolean lazyConnect) {
+        this.lazyConnect = lazyConnect;
+    }
+
+    public int getWarmPoolSize() {
+        return warmPoolSize;
+    }
+
+    public void setWarmPoolSize(int warmPoolSize) {
+        this.warmPoolSize = warmPoolSize;
+    }
+
+    public long getConnectionIdleTimeoutMills() {
+        return connectionIdleTimeoutMills;
+    }
+
+    public void setConnectionIdleTimeoutMills(long connectionIdleTimeoutMills) {
+        this.connectionIdleTimeoutMills = connectionIdleTimeoutMills;
+    }
+
+    /**
+     * @return 新实例预热时间窗口, 小于等于 0 时不开启预热
+     */
+    public long getSlowStartWindowMills() {
+        return slowStartWindowMills;
+    }
+
+    public void setSlowStartWindowMills(long slowStartWindowMills) {
+        this.slowStartWindowMills = slowStartWindowMills;
+    }
+
+    public double getSlowStartAggression() {
+        return slowStartAggression;
+    }
+
+    public void setSlowStartAggression(double slowStartAggression) {
+        this.slowStartAggression = slowStartAggression;
+    }
+
+    public double getSlowStartMinWeightPercent() {
+        return slowStartMinWeightPercent;
+    }
+
+    public void setSlowStartMinWeightPercent(double slowStartMinWeightPercent) {
+        this.slowStartMinWeightPercent = slowStartMinWeightPercent;
+    }
+
+    /**
+     * @return 客户端本地离群检测配置, 为 null 时不开启
+     */
+    public OutlierDetectionConfig getOutlierDetection() {
+        return outlierDetection;
+    }
+
+    public void setOutlierDetection(OutlierDetectionConfig outlierDetection) {
+        this.outlierDetection = outlierDetection;
+    }
+
+    /**
+     * 转换为 gRPC service config 中 loadBalancingConfig 要求的 JSON 结构
+     *
+     * @return raw config
+     */
+    @SuppressWarnings("unchecked")
+    public Map<String, ?> toRawConfig() {
+        return GSON.fromJson(GSON.toJson(this), Map.class);
+    }
+
+    /**
+     * 从 gRPC service config 中解析配置
+     *
+     * @param rawConfig raw config
+     * @return {@link LoadBalanceConfig}
+     */
+    public static LoadBalanceConfig parse(Map<String, ?> rawConfig) {
+        if (Objects.isNull(rawConfig)) {
+            return new LoadBalanceConfig();
+        }
+        return GSON.fromJson(GSON.toJson(rawConfig), LoadBalanceConfig.class);
+    }
+
+    @Override
+    public String toString() {
+        return "LoadBalanceConfig{" +
+                "strategy=" + strategy +
+                ", routeCacheSize=" + routeCacheSize +
+                ", routeCacheExpireMills=" + routeCacheExpireMills +
+                ", peakEwmaDecayMills=" + peakEwmaDecayMills +
+                ", hashKeyHeader='" + hashKeyHeader + '\'' +
+                ", hashRingSize=" + hashRingSize +
+                ", maglevTableSize=" + maglevTableSize +
+                ", region='" + region + '\'' +
+                ", zone='" + zone + '\'' +
+                ", campus='" + campus + '\'' +
+                ", localitySpillThreshold=" + localitySpillThreshold +
+                ", subsetSize=" + subsetSize +
+                ", subsetClientId='" + subsetClientId + '\'' +
+                ", lazyConnect=" + lazyConnect +
+                ", warmPoolSize=" + warmPoolSize +
+                ", connectionIdleTimeoutMills=" + connectionIdleTimeoutMills +
+                ", slowStartWindowMills=" + slowStartWindowMills +
+                ", slowStartAggression=" + slowStartAggression +
+                ", slowStartMinWeightPercent=" + slowStartMinWeightPercent +
+                ", outlierDetection=" + outlierDetection +
+                '}';
+    }
+}
@@ -0,0 +1,61 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+/**
+ * 客户端负载均衡策略
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public enum LoadBalanceStrategy {
+
+    /**
+     * 使用北极星 SDK 配置的负载均衡插件
+     */
+    POLARIS,
+
+    /**
+     * 本地加权随机, 基于 alias table 实现, 每次选择 O(1)
+     */
+    WEIGHTED_RANDOM,
+
+    /**
+     * 本地平滑加权轮询, 预先计算一个完整周期的调度序列, 选择时无锁
+     */
+    WEIGHTED_ROUND_ROBIN,
+
+    /**
+     * 本地 power of two choices, 随机选取两个实例并选择在途请求数更少的一个
+     */
+    LEAST_REQUEST,
+
+    /**
+     * 本地延迟感知的 power of two choices, 选择 peak EWMA 延迟与在途请求数综合分数更低的实例
+     */
+    PEAK_EWMA,
+
+    /**
+     * 本地 ring hash 一致性哈希, 哈希 key 取自 {@link com.tencent.polaris.grpc.util.Common#HASH_KEY} 或者配置的请求头
+     */
+    RING_HASH,
+
+    /**
+     * 本地 Maglev 一致性哈希, 相比 {@link #RING_HASH} 选择只需要一次数组访问, 实例变化时迁移的 key 略多
+     */
+    MAGLEV,
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import com.tencent.polaris.api.pojo.ServiceKey;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 客户端负载均衡的运行统计信息, 按照被调服务维度聚合, 同一个被调服务的多个 channel 共享同一份统计
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public final class LoadBalancerStats {
+
+    private static final Map<ServiceKey, LoadBalancerStats> STATS = new ConcurrentHashMap<>();
+
+    private final ServiceKey target;
+
+    private final LongAdder routeCacheHits = new LongAdder();
+
+    private final LongAdder routeCacheMisses = new LongAdder();
+
+    private final LongAdder routeCacheOverflows = new LongAdder();
+
+    private volatile PolarisSubChannel[] instances = new PolarisSubChannel[0];
+
+    private LoadBalancerStats(ServiceKey target) {
+        this.target = target;
+    }
+
+    /**
+     * 获取被调服务对应的统计信息
+     *
+     * @param target 被调服务
+     * @return {@link LoadBalancerStats}
+     */
+    public static LoadBalancerStats of(ServiceKey target) {
+        return STATS.computeIfAbsent(target, LoadBalancerStats::new);
+    }
+
+    /**
+     * 获取当前进程内所有被调服务的统计信息
+     *
+     * @return {@link Map<ServiceKey, LoadBalancerStats>}
+     */
+    public static Map<ServiceKey, LoadBalancerStats> all() {
+        return Collections.unmodifiableMap(STATS);
+    }
+
+    public ServiceKey getTarget() {
+        return target;
+    }
+
+    /**
+     * @return 路由结果缓存命中次数
+     */
+    public long getRouteCacheHits() {
+        return routeCacheHits.sum();
+    }
+
+    /**
+     * @return 路由结果缓存未命中次数
+     */
+    public long getRouteCacheMisses() {
+        return routeCacheMisses.sum();
+    }
+
+    /**
+     * @return 由于缓存已满而没有被缓存的路由结果次数, 持续增长说明缓存容量偏小
+     */
+    public long getRouteCacheOverflows() {
+        return routeCacheOverflows.sum();
+    }
+
+    /**
+     * 最近一次构建 picker 时可用实例的 peak EWMA 负载分数, 参见 {@link PolarisSubChannel#getPeakEwmaScore()}
+     *
+     * @return host:port -> score
+     */
+    public Map<String, Double> getPeakEwmaScores() {
+        PolarisSubChannel[] current = instances;
+        Map<String, Double> scores = new LinkedHashMap<>(current.length * 2);
+        for (PolarisSubChannel channel : current) {
+            scores.put(channel.getHost() + ":" + channel.getPort(), channel.getPeakEwmaScore());
+        }
+        return scores;
+    }
+
+    void updateInstances(PolarisSubChannel[] instances) {
+        this.instances = instances;
+    }
+
+    void recordRouteCacheHit() {
+        routeCacheHits.increment();
+    }
+
+    void recordRouteCacheMiss() {
+        routeCacheMisses.increment();
+    }
+
+    void recordRouteCacheOverflow() {
+        routeCacheOverflows.increment();
+    }
+
+    @Override
+    public String toString() {
+        return "LoadBalancerStats{" +
+                "target=" + target +
+                ", routeCacheHits=" + routeCacheHits +
+                ", routeCacheMisses=" + routeCacheMisses +
+                ", routeCacheOverflows=" + routeCacheOverflows +
+                '}';
+    }
+}
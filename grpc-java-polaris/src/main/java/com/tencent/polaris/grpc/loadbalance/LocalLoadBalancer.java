@@ -0,0 +1,89 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import io.grpc.LoadBalancer.PickSubchannelArgs;
+
+/**
+ * 进程内的负载均衡器, 在 picker 快照构建时根据实例权重预先计算好选择所需的数据结构, pick 时不再经过 SDK 的插件链。
+ * 对于没有本地实现的 {@link LoadBalanceStrategy}, 仍然交由 {@link com.tencent.polaris.router.api.core.RouterAPI} 处理
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+abstract class LocalLoadBalancer {
+
+    protected final PolarisSubChannel[] channels;
+
+    LocalLoadBalancer(PolarisSubChannel[] channels) {
+        this.channels = channels;
+    }
+
+    /**
+     * 从候选实例中选择一个, 必须是线程安全的
+     *
+     * @param args {@link PickSubchannelArgs}
+     * @return 选中的实例
+     */
+    abstract PolarisSubChannel choose(PickSubchannelArgs args);
+
+    /**
+     * 根据负载均衡策略创建本地负载均衡器
+     *
+     * @param config   {@link LoadBalanceConfig}
+     * @param channels 候选实例, 至少包含一个实例
+     * @return 本地没有实现的策略返回 null
+     */
+    static LocalLoadBalancer create(LoadBalanceConfig config, PolarisSubChannel[] channels) {
+        switch (config.getStrategy()) {
+            case WEIGHTED_RANDOM:
+                return new WeightedRandomLoadBalancer(channels);
+            case WEIGHTED_ROUND_ROBIN:
+                return new WeightedRoundRobinLoadBalancer(channels);
+            case LEAST_REQUEST:
+                return new LeastRequestLoadBalancer(channels);
+            case PEAK_EWMA:
+                return new PeakEwmaLoadBalancer(channels);
+            case RING_HASH:
+                return new RingHashLoadBalancer(channels, config);
+            case MAGLEV:
+                return new MaglevLoadBalancer(channels, config);
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * 获取候选实例的权重, 如果全部实例权重都为 0 则视为等权重
+     *
+     * @param channels 候选实例
+     * @return 权重
+     */
+    static int[] weights(PolarisSubChannel[] channels) {
+        int[] weights = new int[channels.length];
+        long total = 0;
+        for (int i = 0; i < channels.length; i++) {
+            weights[i] = Math.max(0, channels[i].getWeight());
+            total += weights[i];
+        }
+        if (total == 0) {
+            for (int i = 0; i < weights.length; i++) {
+                weights[i] = 1;
+            }
+        }
+        return weights;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import com.tencent.polaris.api.utils.StringUtils;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * 按照与主调方的就近程度对可用实例分层: 同园区, 同可用区, 同地域, 其他。picker 构建时根据每一层的健康比例
+ * 计算出允许使用的最远层级, 只有近端的健康实例占比低于阈值时才会向更远的层级溢出
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class LocalityPartitions {
+
+    static final double DEFAULT_SPILL_THRESHOLD = 0.7;
+
+    static final int TIER_CAMPUS = 0;
+
+    static final int TIER_ZONE = 1;
+
+    static final int TIER_REGION = 2;
+
+    static final int TIER_OTHER = 3;
+
+    private static final LocalityPartitions DISABLED = new LocalityPartitions(new IdentityHashMap<>(), TIER_OTHER, null);
+
+    private final Map<PolarisSubChannel, Integer> tiers;
+
+    private final int allowedTier;
+
+    /**
+     * 路由没有缩小实例范围时直接使用的预先计算好的结果
+     */
+    private final PolarisSubChannel[] preferred;
+
+    private LocalityPartitions(Map<PolarisSubChannel, Integer> tiers, int allowedTier, PolarisSubChannel[] preferred) {
+        this.tiers = tiers;
+        this.allowedTier = allowedTier;
+        this.preferred = preferred;
+    }
+
+    /**
+     * 构建就近分层
+     *
+     * @param config {@link LoadBalanceConfig}
+     * @param ready  可用实例
+     * @param all    当前服务发现返回的全部实例, 包括还没有连接成功的实例
+     * @return {@link LocalityPartitions}
+     */
+    static LocalityPartitions build(LoadBalanceConfig config, PolarisSubChannel[] ready,
+            Collection<PolarisSubChannel> all) {
+        if (StringUtils.isBlank(config.getRegion()) || Objects.isNull(all)) {
+            return DISABLED;
+        }
+        int[] readyCount = new int[TIER_OTHER + 1];
+        int[] totalCount = new int[TIER_OTHER + 1];
+        Map<PolarisSubChannel, Integer> tiers = new IdentityHashMap<>(ready.length * 2);
+        for (PolarisSubChannel channel : ready) {
+            int tier = tier(config, channel);
+            tiers.put(channel, tier);
+            readyCount[tier]++;
+        }
+        for (PolarisSubChannel channel : all) {
+            totalCount[tier(config, channel)]++;
+        }
+
+        int allowedTier = TIER_OTHER;
+        int readySum = 0;
+        int totalSum = 0;
+        for (int tier = TIER_CAMPUS; tier < TIER_OTHER; tier++) {
+            readySum += readyCount[tier];
+            totalSum += totalCount[tier];
+            if (readySum > 0 && readySum >= config.getLocalitySpillThreshold() * totalSum) {
+                allowedTier = tier;
+                break;
+            }
+        }
+
+        List<PolarisSubChannel> preferred = new ArrayList<>(ready.length);
+        for (PolarisSubChannel channel : ready) {
+            if (tiers.get(channel) <= allowedTier) {
+                preferred.add(channel);
+            }
+        }
+        return new LocalityPartitions(tiers, allowedTier, preferred.toArray(new PolarisSubChannel[0]));
+    }
+
+    /**
+     * 从路由结果中筛选出就近的实例, 只在路由结果缓存未命中时调用
+     *
+     * @param routed 路由后的实例
+     * @return 就近的实例, 没有可用的就近实例时逐层向外溢出
+     */
+    PolarisSubChannel[] filter(PolarisSubChannel[] routed) {
+        if (Objects.isNull(preferred) || routed.length == 0) {
+            return routed;
+        }
+        if (routed.length == tiers.size()) {
+            return preferred;
+        }
+        int nearest = TIER_OTHER;
+        for (PolarisSubChannel channel : routed) {
+            nearest = Math.min(nearest, tiers.getOrDefault(channel, TIER_OTHER));
+        }
+        int maxTier = Math.max(nearest, allowedTier);
+        List<PolarisSubChannel> result = new ArrayList<>(routed.length);
+        for (PolarisSubChannel channel : routed) {
+            if (tiers.getOrDefault(channel, TIER_OTHER) <= maxTier) {
+                result.add(channel);
+            }
+        }
+        return result.size() == routed.length ? routed : result.toArray(new PolarisSubChannel[0]);
+    }
+
+    private static int tier(LoadBalanceConfig config, PolarisSubChannel channel) {
+        if (!StringUtils.equals(config.getRegion(), channel.getRegion())) {
+            return TIER_OTHER;
+        }
+        if (StringUtils.isBlank(config.getZone()) || !StringUtils.equals(config.getZone(), channel.getZone())) {
+            return TIER_REGION;
+        }
+        if (StringUtils.isBlank(config.getCampus()) || !StringUtils.equals(config.getCampus(), channel.getCampus())) {
+            return TIER_ZONE;
+        }
+        return TIER_CAMPUS;
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import java.math.BigInteger;
+import java.util.Arrays;
+
+/**
+ * 带权重的 Maglev 一致性哈希, 查找表在 picker 快照构建时一次性生成, 选择时一次哈希加一次数组下标访问。
+ * 每个实例按照 (offset + skip * n) % M 的排列依次抢占表项, 权重越大的实例抢占的轮次越多
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class MaglevLoadBalancer extends ConsistentHashLoadBalancer {
+
+    static final int DEFAULT_TABLE_SIZE = 65537;
+
+    private final int[] table;
+
+    MaglevLoadBalancer(PolarisSubChannel[] channels, LoadBalanceConfig config) {
+        super(channels, config);
+        // 表大小必须是质数, 才能保证每个实例的排列覆盖整张表
+        final int size = BigInteger.valueOf(Math.max(config.getMaglevTableSize(), channels.length) - 1L)
+                .nextProbablePrime().intValue();
+        final int[] weights = weights(channels);
+        int maxWeight = 0;
+        for (int weight : weights) {
+            maxWeight = Math.max(maxWeight, weight);
+        }
+
+        final long[] offsets = new long[channels.length];
+        final long[] skips = new long[channels.length];
+        final long[] next = new long[channels.length];
+        final long[] targets = new long[channels.length];
+        for (int i = 0; i < channels.length; i++) {
+            String identity = identity(channels[i]);
+            offsets[i] = Long.remainderUnsigned(hash(identity), size);
+            skips[i] = Long.remainderUnsigned(hash(identity + "#skip"), size - 1) + 1;
+        }
+
+        this.table = new int[size];
+        Arrays.fill(table, -1);
+        int filled = 0;
+        for (long iteration = 1; filled < size; iteration++) {
+            for (int i = 0; i < channels.length && filled < size; i++) {
+                // 权重为 maxWeight 的实例每一轮都会抢占一次, 权重为 maxWeight / k 的实例每 k 轮抢占一次
+                if (weights[i] == 0 || iteration * weights[i] < targets[i]) {
+                    continue;
+                }
+                targets[i] += maxWeight;
+                int slot = (int) ((offsets[i] + skips[i] * next[i]) % size);
+                while (table[slot] >= 0) {
+                    next[i]++;
+                    slot = (int) ((offsets[i] + skips[i] * next[i]) % size);
+                }
+                table[slot] = i;
+                next[i]++;
+                filled++;
+            }
+        }
+    }
+
+    @Override
+    PolarisSubChannel select(long hash) {
+        return channels[table[(int) Long.remainderUnsigned(hash, table.length)]];
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import java.util.Objects;
+
+/**
+ * 客户端本地离群检测配置, 参数含义与 gRPC / Envoy 的 outlier detection 基本一致
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class OutlierDetectionConfig {
+
+    /**
+     * 检测周期
+     */
+    private long intervalMills = 1000;
+
+    /**
+     * 统计错误率以及延迟的滑动窗口包含的检测周期数
+     */
+    private int windowSize = 10;
+
+    /**
+     * 连续失败多少次后摘除, 小于等于 0 时不开启
+     */
+    private int consecutiveFailures = 5;
+
+    /**
+     * 成功率低于 (平均成功率 - successRateStdevFactor * 标准差) 的实例被摘除, 小于等于 0 时不开启
+     */
+    private double successRateStdevFactor = 1.9;
+
+    /**
+     * peak EWMA 延迟超过其他实例中位数 latencyFactor 倍的实例被摘除, 小于等于 0 时不开启
+     */
+    private double latencyFactor = 3.0;
+
+    /**
+     * 窗口内请求数少于该值的实例不参与成功率以及延迟的检测
+     */
+    private int minRequestVolume = 50;
+
+    /**
+     * 参与成功率以及延迟检测的实例数少于该值时不做检测, 避免样本太少时误判
+     */
+    private int minHosts = 5;
+
+    /**
+     * 首次摘除的时长, 之后每次摘除时长翻倍, 直到 maxEjectionMills
+     */
+    private long baseEjectionMills = 30_000;
+
+    private long maxEjectionMills = 300_000;
+
+    /**
+     * 同时被摘除的实例占全部实例的最大比例
+     */
+    private int maxEjectionPercent = 10;
+
+    public long getIntervalMills() {
+        return intervalMills;
+    }
+
+    public void setIntervalMills(long intervalMills) {
+        this.intervalMills = intervalMills;
+    }
+
+    public int getWindowSize() {
+        return windowSize;
+    }
+
+    public void setWindowSize(int windowSize) {
+        this.windowSize = windowSize;
+    }
+
+    public int getConsecutiveFailures() {
+        return consecutiveFailures;
+    }
+
+    public void setConsecutiveFailures(int consecutiveFailures) {
+        this.consecutiveFailures = consecutiveFailures;
+    }
+
+    public double getSuccessRateStdevFactor() {
+        return successRateStdevFactor;
+    }
+
+    public void setSuccessRateStdevFactor(double successRateStdevFactor) {
+        this.successRateStdevFactor = successRateStdevFactor;
+    }
+
+    public double getLatencyFactor() {
+        return latencyFactor;
+    }
+
+    public void setLatencyFactor(double latencyFactor) {
+        this.latencyFactor = latencyFactor;
+    }
+
+    public int getMinRequestVolume() {
+        return minRequestVolume;
+    }
+
+    public void setMinRequestVolume(int minRequestVolume) {
+        this.minRequestVolume = minRequestVolume;
+    }
+
+    public int getMinHosts() {
+        return minHosts;
+    }
+
+    public void setMinHosts(int minHosts) {
+        this.minHosts = minHosts;
+    }
+
+    public long getBaseEjectionMills() {
+        return baseEjectionMills;
+    }
+
+    public void setBaseEjectionMills(long baseEjectionMills) {
+        this.baseEjectionMills = baseEjectionMills;
+    }
+
+    public long getMaxEjectionMills() {
+        return maxEjectionMills;
+    }
+
+    public void setMaxEjectionMills(long maxEjectionMills) {
+        this.maxEjectionMills = maxEjectionMills;
+    }
+
+    public int getMaxEjectionPercent() {
+        return maxEjectionPercent;
+    }
+
+    public void setMaxEjectionPercent(int maxEjectionPercent) {
+        this.maxEjectionPercent = maxEjectionPercent;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof OutlierDetectionConfig)) {
+            return false;
+        }
+        OutlierDetectionConfig that = (OutlierDetectionConfig) o;
+        return intervalMills == that.intervalMills && windowSize == that.windowSize
+                && consecutiveFailures == that.consecutiveFailures
+                && Double.compare(successRateStdevFactor, that.successRateStdevFactor) == 0
+                && Double.compare(latencyFactor, that.latencyFactor) == 0
+                && minRequestVolume == that.minRequestVolume && minHosts == that.minHosts
+                && baseEjectionMills == that.baseEjectionMills && maxEjectionMills == that.maxEjectionMills
+                && maxEjectionPercent == that.maxEjectionPercent;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(intervalMills, windowSize, consecutiveFailures, successRateStdevFactor, latencyFactor,
+                minRequestVolume, minHosts, baseEjectionMills, maxEjectionMills, maxEjectionPercent);
+    }
+
+    @Override
+    public String toString() {
+        return "OutlierDetectionConfig{" +
+                "intervalMills=" + intervalMills +
+                ", windowSize=" + windowSize +
+                ", consecutiveFailures=" + consecutiveFailures +
+                ", successRateStdevFactor=" + successRateStdevFactor +
+                ", latencyFactor=" + latencyFactor +
+                ", minRequestVolume=" + minRequestVolume +
+                ", minHosts=" + minHosts +
+                ", baseEjectionMills=" + baseEjectionMills +
+                ", maxEjectionMills=" + maxEjectionMills +
+                ", maxEjectionPercent=" + maxEjectionPercent +
+                '}';
+    }
+}
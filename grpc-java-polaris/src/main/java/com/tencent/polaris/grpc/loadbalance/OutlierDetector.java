@@ -0,0 +1,157 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 客户端本地离群检测, 由 {@link PolarisLoadBalancer} 在 SynchronizationContext 中按照固定周期调用。
+ * 依次按照连续失败次数, 成功率偏离以及延迟偏离摘除实例, 摘除时长按照摘除次数指数退避, 同时被摘除的实例数不超过 maxEjectionPercent
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class OutlierDetector {
+
+    private static final Logger LOG = LoggerFactory.getLogger(OutlierDetector.class);
+
+    private final OutlierDetectionConfig config;
+
+    OutlierDetector(OutlierDetectionConfig config) {
+        this.config = config;
+    }
+
+    /**
+     * 执行一次检测
+     *
+     * @param channels 当前全部实例
+     * @param now      当前时间, 纳秒
+     * @return 被摘除的实例集合是否发生变化
+     */
+    boolean detect(Collection<PolarisSubChannel> channels, long now) {
+        boolean changed = false;
+        int ejectedCount = 0;
+        for (PolarisSubChannel channel : channels) {
+            OutlierStats stats = channel.getOutlierStats();
+            stats.roll(Math.max(1, config.getWindowSize()));
+            if (stats.isEjected() && now - stats.getEjectedUntil() >= 0) {
+                stats.uneject();
+                changed = true;
+                LOG.info("[grpc-polaris] outlier instance {}:{} recovered", channel.getHost(), channel.getPort());
+            }
+            stats.decay(Math.max(1, config.getWindowSize()));
+            if (stats.isEjected()) {
+                ejectedCount++;
+            }
+        }
+        final int maxEjected = channels.size() * config.getMaxEjectionPercent() / 100;
+        if (ejectedCount >= maxEjected) {
+            return changed;
+        }
+
+        List<PolarisSubChannel> candidates = new ArrayList<>(channels.size());
+        for (PolarisSubChannel channel : channels) {
+            if (!channel.getOutlierStats().isEjected()) {
+                candidates.add(channel);
+            }
+        }
+
+        // 1. 连续失败
+        if (config.getConsecutiveFailures() > 0) {
+            for (PolarisSubChannel channel : candidates) {
+                if (ejectedCount < maxEjected
+                        && channel.getOutlierStats().getConsecutiveFailures() >= config.getConsecutiveFailures()) {
+                    eject(channel, now, "consecutive failures");
+                    ejectedCount++;
+                    changed = true;
+                }
+            }
+        }
+
+        List<PolarisSubChannel> sampled = new ArrayList<>(candidates.size());
+        for (PolarisSubChannel channel : candidates) {
+            OutlierStats stats = channel.getOutlierStats();
+            if (!stats.isEjected() && stats.getWindowRequests() >= config.getMinRequestVolume()) {
+                sampled.add(channel);
+            }
+        }
+        if (sampled.size() < Math.max(1, config.getMinHosts())) {
+            return changed;
+        }
+
+        // 2. 成功率偏离
+        if (config.getSuccessRateStdevFactor() > 0) {
+            double sum = 0;
+            double squareSum = 0;
+            for (PolarisSubChannel channel : sampled) {
+                double rate = channel.getOutlierStats().getWindowSuccessRate();
+                sum += rate;
+                squareSum += rate * rate;
+            }
+            double mean = sum / sampled.size();
+            double stdev = Math.sqrt(Math.max(0, squareSum / sampled.size() - mean * mean));
+            double threshold = mean - config.getSuccessRateStdevFactor() * stdev;
+            for (PolarisSubChannel channel : sampled) {
+                OutlierStats stats = channel.getOutlierStats();
+                if (ejectedCount < maxEjected && !stats.isEjected() && stats.getWindowSuccessRate() < threshold) {
+                    eject(channel, now, "success rate deviation");
+                    ejectedCount++;
+                    changed = true;
+                }
+            }
+        }
+
+        // 3. 延迟偏离
+        if (config.getLatencyFactor() > 0) {
+            double[] latencies = new double[sampled.size()];
+            for (int i = 0; i < latencies.length; i++) {
+                latencies[i] = sampled.get(i).getPeakEwmaLatency();
+            }
+            double[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            double median = sorted[sorted.length / 2];
+            for (int i = 0; i < latencies.length; i++) {
+                PolarisSubChannel channel = sampled.get(i);
+                if (ejectedCount < maxEjected && median > 0 && !channel.getOutlierStats().isEjected()
+                        && latencies[i] > config.getLatencyFactor() * median) {
+                    eject(channel, now, "latency deviation");
+                    ejectedCount++;
+                    changed = true;
+                }
+            }
+        }
+        return changed;
+    }
+
+    private void eject(PolarisSubChannel channel, long now, String reason) {
+        OutlierStats stats = channel.getOutlierStats();
+        int times = Math.min(stats.getEjectionTimes(), 30);
+        long duration = Math.min(config.getBaseEjectionMills() << times, config.getMaxEjectionMills());
+        if (duration < 0) {
+            duration = config.getMaxEjectionMills();
+        }
+        stats.eject(now + TimeUnit.MILLISECONDS.toNanos(duration));
+        LOG.warn("[grpc-polaris] eject outlier instance {}:{} for {}ms, reason: {}", channel.getHost(),
+                channel.getPort(), duration, reason);
+    }
+}
@@ -0,0 +1,162 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import io.grpc.Status;
+import io.grpc.Status.Code;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 单个实例的离群检测统计, 调用结果由 {@link PolarisClientStreamTracer} 并发写入,
+ * 滑动窗口以及摘除状态只会在负载均衡器的 SynchronizationContext 中由 {@link OutlierDetector} 读写
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class OutlierStats {
+
+    private final LongAdder successes = new LongAdder();
+
+    private final LongAdder failures = new LongAdder();
+
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+    private long[] successBuckets = new long[0];
+
+    private long[] failureBuckets = new long[0];
+
+    private int cursor;
+
+    private long windowSuccesses;
+
+    private long windowFailures;
+
+    private int ejectionTimes;
+
+    private int healthyIntervals;
+
+    private long ejectedUntil;
+
+    private volatile boolean ejected;
+
+    void onCallResult(Status status) {
+        if (isFailure(status.getCode())) {
+            failures.increment();
+            consecutiveFailures.incrementAndGet();
+        } else {
+            successes.increment();
+            if (consecutiveFailures.get() != 0) {
+                consecutiveFailures.set(0);
+            }
+        }
+    }
+
+    /**
+     * 只有服务端异常才计为失败, 业务错误码不影响实例的健康状态
+     */
+    static boolean isFailure(Code code) {
+        switch (code) {
+            case UNAVAILABLE:
+            case INTERNAL:
+            case UNKNOWN:
+            case DEADLINE_EXCEEDED:
+            case DATA_LOSS:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * 将当前检测周期的统计滚动进滑动窗口
+     *
+     * @param windowSize 窗口包含的检测周期数
+     */
+    void roll(int windowSize) {
+        if (successBuckets.length != windowSize) {
+            successBuckets = new long[windowSize];
+            failureBuckets = new long[windowSize];
+            cursor = 0;
+            windowSuccesses = 0;
+            windowFailures = 0;
+        }
+        long success = successes.sumThenReset();
+        long failure = failures.sumThenReset();
+        windowSuccesses += success - successBuckets[cursor];
+        windowFailures += failure - failureBuckets[cursor];
+        successBuckets[cursor] = success;
+        failureBuckets[cursor] = failure;
+        cursor = (cursor + 1) % windowSize;
+    }
+
+    long getWindowRequests() {
+        return windowSuccesses + windowFailures;
+    }
+
+    double getWindowSuccessRate() {
+        long total = getWindowRequests();
+        return total == 0 ? 1.0 : (double) windowSuccesses / total;
+    }
+
+    int getConsecutiveFailures() {
+        return consecutiveFailures.get();
+    }
+
+    boolean isEjected() {
+        return ejected;
+    }
+
+    int getEjectionTimes() {
+        return ejectionTimes;
+    }
+
+    long getEjectedUntil() {
+        return ejectedUntil;
+    }
+
+    void eject(long until) {
+        ejectionTimes++;
+        healthyIntervals = 0;
+        ejectedUntil = until;
+        ejected = true;
+        // 摘除前的统计不再参与恢复后的判断, 避免恢复后立刻被再次摘除
+        consecutiveFailures.set(0);
+        successes.reset();
+        failures.reset();
+        successBuckets = new long[0];
+        failureBuckets = new long[0];
+    }
+
+    void uneject() {
+        ejected = false;
+        ejectedUntil = 0;
+    }
+
+    /**
+     * 没有被摘除的周期数达到 decayIntervals 后, 摘除次数减一, 下次摘除的时长随之缩短
+     */
+    void decay(int decayIntervals) {
+        if (ejected || ejectionTimes == 0) {
+            return;
+        }
+        if (++healthyIntervals >= decayIntervals) {
+            healthyIntervals = 0;
+            ejectionTimes--;
+        }
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 实例的 peak EWMA 延迟: 新的样本比当前值大时直接取样本 (peak), 否则按照距离上一次样本的时间指数衰减地合并。
+ * 读取时同样按照时间衰减, 长时间没有请求的实例会逐渐回落, 重新获得流量
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class PeakEwma {
+
+    static final long DEFAULT_DECAY_MILLS = 10_000;
+
+    /**
+     * 还没有任何延迟样本但已经有在途请求的实例, 在途请求数基础上的惩罚值, 避免新实例在首个响应返回前吸走全部流量
+     */
+    private static final double PENALTY = Integer.MAX_VALUE;
+
+    private volatile double decayNanos = TimeUnit.MILLISECONDS.toNanos(DEFAULT_DECAY_MILLS);
+
+    private volatile State state = new State(0, System.nanoTime());
+
+    void setDecayMills(long decayMills) {
+        this.decayNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(1, decayMills));
+    }
+
+    /**
+     * 记录一次请求延迟
+     *
+     * @param rttNanos 请求延迟, 单位纳秒
+     */
+    synchronized void observe(long rttNanos) {
+        final long now = System.nanoTime();
+        final State current = state;
+        final double rtt = Math.max(0, rttNanos);
+        double cost;
+        if (rtt > current.cost) {
+            cost = rtt;
+        } else {
+            double w = Math.exp(-Math.max(0, now - current.stamp) / decayNanos);
+            cost = current.cost * w + rtt * (1 - w);
+        }
+        state = new State(cost, now);
+    }
+
+    /**
+     * @return 衰减到当前时刻的延迟, 单位纳秒
+     */
+    double getCost() {
+        final State current = state;
+        return current.cost * Math.exp(-Math.max(0, System.nanoTime() - current.stamp) / decayNanos);
+    }
+
+    /**
+     * 结合在途请求数得到的负载分数, 分数越低越优先
+     *
+     * @param outstanding 在途请求数
+     * @return 负载分数
+     */
+    double score(long outstanding) {
+        double cost = getCost();
+        if (cost == 0 && outstanding != 0) {
+            return PENALTY + outstanding;
+        }
+        return cost * (outstanding + 1);
+    }
+
+    private static final class State {
+
+        private final double cost;
+
+        private final long stamp;
+
+        private State(double cost, long stamp) {
+            this.cost = cost;
+            this.stamp = stamp;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import io.grpc.LoadBalancer.PickResult;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * 按照 (实例, 方法) 缓存 pick 的结果, 其中的 {@link com.tencent.polaris.grpc.util.ClientCallInfo} 以及
+ * {@link PolarisClientStreamTracerFactory} 都是不可变的, 可以被同一个实例同一个方法的所有调用复用, 避免每次 pick 都分配对象。
+ * 缓存归属于某一个 {@link PolarisPicker}, 实例快照变化时随 picker 一起丢弃
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class PickResultCache {
+
+    static final int DEFAULT_MAX_SIZE = 4096;
+
+    private final int maxSize;
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    /**
+     * 下标与 picker 的实例快照一致, 每个实例一个 full method name -> {@link PickResult} 的映射, 第一次使用时才创建
+     */
+    private final AtomicReferenceArray<Map<String, PickResult>> results;
+
+    PickResultCache(int channels, int maxSize) {
+        this.maxSize = maxSize;
+        this.results = new AtomicReferenceArray<>(channels);
+    }
+
+    /**
+     * @param index          实例在 picker 快照中的下标
+     * @param fullMethodName 完整的方法名
+     * @return 缓存的 pick 结果, 没有命中时返回 null
+     */
+    PickResult get(int index, String fullMethodName) {
+        Map<String, PickResult> methods = results.get(index);
+        return methods == null ? null : methods.get(fullMethodName);
+    }
+
+    void put(int index, String fullMethodName, PickResult result) {
+        if (size.get() >= maxSize) {
+            return;
+        }
+        Map<String, PickResult> methods = results.get(index);
+        if (methods == null) {
+            results.compareAndSet(index, null, new ConcurrentHashMap<>());
+            methods = results.get(index);
+        }
+        if (methods.putIfAbsent(fullMethodName, result) == null) {
+            size.incrementAndGet();
+        }
+    }
+}
@@ -16,71 +16,111 @@
 
 package com.tencent.polaris.grpc.loadbalance;
 
-import com.tencent.polaris.api.exception.PolarisException;
 import com.tencent.polaris.api.pojo.RetStatus;
-import com.tencent.polaris.api.rpc.ServiceCallResult;
+import com.tencent.polaris.grpc.metrics.ClientMetrics;
+import com.tencent.polaris.grpc.metrics.Histogram;
 import com.tencent.polaris.grpc.util.ClientCallInfo;
 import io.grpc.ClientStreamTracer;
 import io.grpc.Metadata;
 import io.grpc.Status;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 
-import java.util.Map;
-import java.util.Objects;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.TimeUnit;
 
 /**
- * grpc 调用的 tracer 信息，记录每次 grpc 调用的情况
- * 1. 每次请求的相应时间
- * 2. 每次请求的结果，记录成功或者失败
+ * grpc 调用的 tracer 信息，记录每次 grpc 调用的情况, 在 stream 关闭时通过 {@link AsyncCallResultReporter} 异步上报一次
+ * 1. 每次请求的耗时, 从 stream 创建到 stream 关闭
+ * 2. 每次请求的结果以及真实的 grpc 状态码
+ * 3. 请求以及响应的网络传输字节数
  *
  * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
  */
 public class PolarisClientStreamTracer extends ClientStreamTracer {
 
-    private static final Logger LOG = LoggerFactory.getLogger(PolarisClientStreamTracer.class);
-
     private final ClientCallInfo info;
 
-    private final Map<Integer, Long> perStreamRequestStartTimes = new ConcurrentHashMap<Integer, Long>();
+    private final Histogram latency;
+
+    private final long startNanos = System.nanoTime();
+
+    private volatile long firstInboundNanos;
 
-    private final AtomicBoolean reported = new AtomicBoolean(false);
+    private volatile long outboundWireSize;
 
-    private final ServiceCallResult result;
+    private volatile long inboundWireSize;
 
     public PolarisClientStreamTracer(StreamInfo info, Metadata headers, ClientCallInfo callInfo) {
+        this(info, headers, callInfo, ClientMetrics.latency(callInfo));
+    }
+
+    PolarisClientStreamTracer(StreamInfo info, Metadata headers, ClientCallInfo callInfo, Histogram latency) {
         this.info = callInfo;
-        this.result = new ServiceCallResult();
+        this.latency = latency;
+        if (callInfo.getInstance() instanceof PolarisSubChannel) {
+            ((PolarisSubChannel) callInfo.getInstance()).onStreamStarted();
+        }
+    }
 
-        this.result.setHost(callInfo.getInstance().getHost());
-        this.result.setPort(callInfo.getInstance().getPort());
-        this.result.setMethod(callInfo.getMethod());
-        this.result.setNamespace(callInfo.getTargetNamespace());
-        this.result.setService(callInfo.getTargetService());
+    @Override
+    public void inboundMessage(int seqNo) {
+        if (firstInboundNanos == 0) {
+            firstInboundNanos = System.nanoTime();
+        }
     }
 
     @Override
-    public void outboundMessage(int seqNo) {
-        perStreamRequestStartTimes.put(seqNo, System.currentTimeMillis());
+    public void outboundWireSize(long bytes) {
+        outboundWireSize += bytes;
     }
 
     @Override
-    public void inboundMessage(int seqNo) {
-        Long startTime = perStreamRequestStartTimes.get(seqNo);
-        if (Objects.isNull(startTime)) {
-            return;
-        }
-        this.result.setRetStatus(RetStatus.RetSuccess);
-        this.result.setRetCode(Status.OK.getCode().value());
-        this.result.setDelay(System.currentTimeMillis() - startTime);
-
-        try {
-            this.info.getConsumerAPI().updateServiceCallResult(result);
-        } catch (PolarisException e) {
-            LOG.error("[grpc-polaris] do report invoke call ret fail in inboundMessageRead", e);
+    public void inboundWireSize(long bytes) {
+        inboundWireSize += bytes;
+    }
+
+    @Override
+    public void streamClosed(Status status) {
+        final long endNanos = System.nanoTime();
+        final long delayNanos = endNanos - startNanos;
+
+        if (info.getInstance() instanceof PolarisSubChannel) {
+            PolarisSubChannel channel = (PolarisSubChannel) info.getInstance();
+            channel.onStreamClosed();
+            channel.getOutlierStats().onCallResult(status);
+            // 流式调用的总耗时与消息数量相关, 延迟感知负载均衡使用首个响应消息的耗时
+            long firstInbound = firstInboundNanos;
+            if (firstInbound != 0) {
+                channel.onLatency(firstInbound - startNanos);
+            } else if (!status.isOk()) {
+                channel.onLatency(delayNanos);
+            }
         }
+
+        latency.record(TimeUnit.NANOSECONDS.toMicros(delayNanos));
+        AsyncCallResultReporter.getInstance().report(info, status.getCode(), delayNanos);
+    }
+
+    /**
+     * @return 请求发送的网络传输字节数
+     */
+    public long getOutboundWireSize() {
+        return outboundWireSize;
+    }
+
+    /**
+     * @return 响应接收的网络传输字节数
+     */
+    public long getInboundWireSize() {
+        return inboundWireSize;
     }
 
+    static RetStatus retStatus(Status.Code code) {
+        if (code == Status.Code.OK) {
+            return RetStatus.RetSuccess;
+        }
+        if (code == Status.Code.DEADLINE_EXCEEDED) {
+            return RetStatus.RetTimeout;
+        }
+        // 业务错误码不计入实例的失败, 避免误触发熔断
+        return OutlierStats.isFailure(code) ? RetStatus.RetFail : RetStatus.RetSuccess;
+    }
 }
@@ -16,6 +16,8 @@
 
 package com.tencent.polaris.grpc.loadbalance;
 
+import com.tencent.polaris.grpc.metrics.ClientMetrics;
+import com.tencent.polaris.grpc.metrics.Histogram;
 import com.tencent.polaris.grpc.util.ClientCallInfo;
 import io.grpc.ClientStreamTracer;
 import io.grpc.ClientStreamTracer.Factory;
@@ -31,13 +33,24 @@ public class PolarisClientStreamTracerFactory extends Factory {
 
     private final ClientCallInfo callInfo;
 
+    /**
+     * 实例被清理之后直方图会失效, 此时重新获取
+     */
+    private volatile Histogram latency;
+
     public PolarisClientStreamTracerFactory(final ClientCallInfo callInfo) {
         super();
         this.callInfo = callInfo;
+        this.latency = ClientMetrics.latency(callInfo);
     }
 
     @Override
     public ClientStreamTracer newClientStreamTracer(StreamInfo info, Metadata headers) {
-        return new PolarisClientStreamTracer(info, headers, callInfo);
+        Histogram histogram = latency;
+        if (histogram.isRetired()) {
+            histogram = ClientMetrics.latency(callInfo);
+            latency = histogram;
+        }
+        return new PolarisClientStreamTracer(info, headers, callInfo, histogram);
     }
 }
@@ -29,6 +29,7 @@ import com.tencent.polaris.client.api.SDKContext;
 import com.tencent.polaris.factory.api.DiscoveryAPIFactory;
 import com.tencent.polaris.factory.api.RouterAPIFactory;
 import com.tencent.polaris.grpc.loadbalance.PolarisPicker.EmptyPicker;
+import com.tencent.polaris.grpc.metrics.ClientMetrics;
 import com.tencent.polaris.grpc.util.Common;
 import com.tencent.polaris.grpc.util.GrpcHelper;
 import com.tencent.polaris.router.api.core.RouterAPI;
@@ -38,6 +39,7 @@ import io.grpc.ConnectivityStateInfo;
 import io.grpc.EquivalentAddressGroup;
 import io.grpc.LoadBalancer;
 import io.grpc.Status;
+import io.grpc.SynchronizationContext.ScheduledHandle;
 
 import java.net.SocketAddress;
 import java.util.HashMap;
@@ -47,6 +49,7 @@ import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 import java.util.function.Function;
@@ -66,6 +69,8 @@ public class PolarisLoadBalancer extends LoadBalancer {
 
     private final RouterAPI routerAPI;
 
+    private final RoutePlanCache routePlanCache;
+
     private final Helper helper;
 
     private final AtomicReference<ConnectivityState> currentState = new AtomicReference<>(IDLE);
@@ -86,9 +91,12 @@ public class PolarisLoadBalancer extends LoadBalancer {
                     .build());
 
             subChannel.start(state -> processSubChannelState(subChannel, state));
-            subChannel.requestConnection();
-
-            PolarisSubChannel channel = new PolarisSubChannel(subChannel, newAttributes.get(Common.INSTANCE_KEY));
+            PolarisSubChannel channel = new PolarisSubChannel(subChannel, newAttributes.get(Common.INSTANCE_KEY),
+                    helper.getSynchronizationContext());
+            // 懒连接模式下由 ensureWarmPool 以及 picker 按需发起连接
+            if (!config.isLazyConnect()) {
+                channel.requestConnectionOnce();
+            }
             return new Tuple<>(addressGroup, channel);
         }
     };
@@ -103,10 +111,40 @@ public class PolarisLoadBalancer extends LoadBalancer {
 
     private ServiceKey sourceService;
 
+    private volatile LoadBalanceConfig config = new LoadBalanceConfig();
+
+    private ScheduledHandle idleCheckHandle;
+
+    private ScheduledHandle slowStartHandle;
+
+    /**
+     * 当前预热任务的周期, 为 0 时没有开启预热
+     */
+    private long slowStartPeriodMills;
+
+    private OutlierDetector outlierDetector;
+
+    private ScheduledHandle outlierDetectionHandle;
+
+    /**
+     * 当前离群检测任务使用的配置, 配置变化时重新调度
+     */
+    private OutlierDetectionConfig outlierDetectionConfig;
+
+    /**
+     * 被调服务处于 panic 模式, 由 resolver 根据健康实例的占比判断
+     */
+    private boolean panic;
+
     public PolarisLoadBalancer(final SDKContext context, final Helper helper) {
+        this(context, helper, new RoutePlanCache(context, DiscoveryAPIFactory.createConsumerAPIByContext(context)));
+    }
+
+    public PolarisLoadBalancer(final SDKContext context, final Helper helper, final RoutePlanCache routePlanCache) {
         this.context = context;
         this.consumerAPI = DiscoveryAPIFactory.createConsumerAPIByContext(context);
         this.routerAPI = RouterAPIFactory.createRouterAPIByContext(context);
+        this.routePlanCache = Preconditions.checkNotNull(routePlanCache);
         this.helper = Preconditions.checkNotNull(helper);
     }
 
@@ -115,12 +153,22 @@ public class PolarisLoadBalancer extends LoadBalancer {
         if (Objects.isNull(sourceService)) {
             this.sourceService = resolvedAddresses.getAttributes().get(Common.SOURCE_SERVICE_INFO);
         }
+        Object lbConfig = resolvedAddresses.getLoadBalancingPolicyConfig();
+        if (lbConfig instanceof LoadBalanceConfig) {
+            this.config = (LoadBalanceConfig) lbConfig;
+        }
 
         List<EquivalentAddressGroup> servers = resolvedAddresses.getAddresses();
         if (servers.isEmpty()) {
             handleNameResolutionError(Status.NOT_FOUND);
             return;
         }
+        boolean panic = Boolean.TRUE.equals(resolvedAddresses.getAttributes().get(Common.PANIC_MODE_KEY));
+        // 实例的健康状态、权重、地域等发生变化时需要重建 picker
+        boolean changed = panic != this.panic;
+        this.panic = panic;
+
+        servers = DeterministicSubset.select(servers, config.getSubsetSize(), config.getSubsetClientId());
 
         Map<String, EquivalentAddressGroup> serversMap = servers.stream().collect(HashMap::new, (m, e) -> {
             m.put(buildKey(e), e);
@@ -132,19 +180,37 @@ public class PolarisLoadBalancer extends LoadBalancer {
                 String key = buildKey(addressGroup);
                 if (subChannels.containsKey(key)) {
                     Tuple<EquivalentAddressGroup, PolarisSubChannel> value = subChannels.get(key);
-                    // 更新实例的状态信息到 SubChannel 中
-                    value.getB().setInstance(addressGroup.getAttributes().get(Common.INSTANCE_KEY));
+                    // 更新实例的状态信息到 SubChannel 中, 同时保留最新的地址信息, 重建 subChannel 时使用
+                    changed |= value.getB().setInstance(addressGroup.getAttributes().get(Common.INSTANCE_KEY));
+                    subChannels.put(key, new Tuple<>(addressGroup, value.getB()));
                 } else {
-                    subChannels.put(key, function.apply(addressGroup));
+                    Tuple<EquivalentAddressGroup, PolarisSubChannel> value = function.apply(addressGroup);
+                    subChannels.put(key, value);
+                    acquireMetrics(value.getB());
                 }
+                subChannels.get(key).getB().setPeakEwmaDecayMills(config.getPeakEwmaDecayMills());
+                subChannels.get(key).getB().setPanic(panic);
             }
         }
 
         removed.forEach(entry -> {
-            Subchannel channel = subChannels.remove(entry).getB();
+            PolarisSubChannel channel = subChannels.remove(entry).getB();
             GrpcHelper.shutdownSubChannel(channel);
+            removeMetrics(channel);
         });
+        // 被移除的 subChannel 已经不在 subChannels 中, 不会再通过状态回调重建 picker
+        changed |= !removed.isEmpty();
 
+        if (config.isLazyConnect()) {
+            ensureWarmPool();
+            scheduleIdleCheck();
+        }
+        scheduleSlowStart();
+        scheduleOutlierDetection();
+        if (changed) {
+            // picker 中的负载均衡查找表以及就近路由分区都是构建时的快照, 重建 picker 使变化生效
+            updateBalancingState();
+        }
     }
 
     @Override
@@ -167,7 +233,10 @@ public class PolarisLoadBalancer extends LoadBalancer {
             helper.refreshNameResolution();
         }
         if (stateInfo.getState() == IDLE) {
-            subChannel.requestConnection();
+            channel.resetConnectRequest();
+            if (!config.isLazyConnect()) {
+                channel.requestConnectionOnce();
+            }
         }
         GrpcHelper.Ref<ConnectivityStateInfo> subChannelStateRef = GrpcHelper.getSubChannelStateInfoRef(subChannel);
         if (subChannelStateRef.getValue().getState().equals(TRANSIENT_FAILURE)) {
@@ -176,13 +245,196 @@ public class PolarisLoadBalancer extends LoadBalancer {
             }
         }
         subChannelStateRef.setValue(stateInfo);
+        if (stateInfo.getState() == READY) {
+            channel.markReady();
+            refreshSlowStartWeight(channel, System.nanoTime());
+        }
+        if (config.isLazyConnect()) {
+            ensureWarmPool();
+        }
         updateBalancingState();
     }
 
+    /**
+     * 懒连接模式下保证至少有 warmPoolSize 个实例处于已连接或者正在连接的状态
+     */
+    private void ensureWarmPool() {
+        int warm = 0;
+        for (Tuple<EquivalentAddressGroup, PolarisSubChannel> tuple : subChannels.values()) {
+            PolarisSubChannel channel = tuple.getB();
+            if (isReady(channel) || channel.isConnectRequested()) {
+                warm++;
+            }
+        }
+        for (Tuple<EquivalentAddressGroup, PolarisSubChannel> tuple : subChannels.values()) {
+            if (warm >= config.getWarmPoolSize()) {
+                return;
+            }
+            PolarisSubChannel channel = tuple.getB();
+            if (!isReady(channel) && channel.requestConnectionOnce()) {
+                warm++;
+            }
+        }
+    }
+
+    private void scheduleIdleCheck() {
+        if (Objects.nonNull(idleCheckHandle)) {
+            return;
+        }
+        long period = Math.max(1000, config.getConnectionIdleTimeoutMills() / 2);
+        idleCheckHandle = helper.getSynchronizationContext().scheduleWithFixedDelay(this::closeIdleSubChannels,
+                period, period, TimeUnit.MILLISECONDS, helper.getScheduledExecutorService());
+    }
+
+    /**
+     * 懒连接模式下关闭长时间没有请求的连接, 关闭后的实例以未连接的状态继续参与路由, 被选中时重新连接
+     */
+    private void closeIdleSubChannels() {
+        final long idleTimeout = TimeUnit.MILLISECONDS.toNanos(config.getConnectionIdleTimeoutMills());
+        final long now = System.nanoTime();
+        int ready = 0;
+        for (Tuple<EquivalentAddressGroup, PolarisSubChannel> tuple : subChannels.values()) {
+            if (isReady(tuple.getB())) {
+                ready++;
+            }
+        }
+        boolean changed = false;
+        for (Map.Entry<String, Tuple<EquivalentAddressGroup, PolarisSubChannel>> entry : subChannels.entrySet()) {
+            if (ready <= config.getWarmPoolSize()) {
+                break;
+            }
+            PolarisSubChannel channel = entry.getValue().getB();
+            if (!isReady(channel) || channel.getOutstandingRequests() > 0
+                    || now - channel.getLastActiveNanos() < idleTimeout) {
+                continue;
+            }
+            // subChannel 一旦 shutdown 就不能再次使用, 替换为一个新的未连接的 subChannel
+            Tuple<EquivalentAddressGroup, PolarisSubChannel> replacement = function.apply(entry.getValue().getA());
+            replacement.getB().inheritState(channel);
+            replacement.getB().setPeakEwmaDecayMills(config.getPeakEwmaDecayMills());
+            entry.setValue(replacement);
+            GrpcHelper.shutdownSubChannel(channel);
+            ready--;
+            changed = true;
+        }
+        if (changed) {
+            updateBalancingState();
+        }
+    }
+
+    /**
+     * 按照当前配置调整预热的定时任务, 周期没有变化时保留原有任务; 关闭预热时取消任务并恢复实例配置的权重
+     */
+    private void scheduleSlowStart() {
+        long window = config.getSlowStartWindowMills();
+        long period = window > 0 ? Math.min(1000, Math.max(100, window / 10)) : 0;
+        if (period == slowStartPeriodMills) {
+            return;
+        }
+        if (Objects.nonNull(slowStartHandle)) {
+            slowStartHandle.cancel();
+            slowStartHandle = null;
+        }
+        slowStartPeriodMills = period;
+        if (period == 0) {
+            refreshSlowStartWeights();
+            return;
+        }
+        slowStartHandle = helper.getSynchronizationContext().scheduleWithFixedDelay(this::refreshSlowStartWeights,
+                period, period, TimeUnit.MILLISECONDS, helper.getScheduledExecutorService());
+    }
+
+    /**
+     * 定时重新计算预热中实例的有效权重, 只有权重发生变化时才重建 picker
+     */
+    private void refreshSlowStartWeights() {
+        final long now = System.nanoTime();
+        boolean changed = false;
+        for (Tuple<EquivalentAddressGroup, PolarisSubChannel> tuple : subChannels.values()) {
+            changed |= refreshSlowStartWeight(tuple.getB(), now);
+        }
+        if (changed) {
+            updateBalancingState();
+        }
+    }
+
+    private boolean refreshSlowStartWeight(PolarisSubChannel channel, long now) {
+        int weight = SlowStart.effectiveWeight(config, channel.getConfiguredWeight(), channel.getReadySinceNanos(), now);
+        if (weight == channel.getSlowStartWeight()) {
+            return false;
+        }
+        channel.setSlowStartWeight(weight);
+        return true;
+    }
+
+    /**
+     * 按照当前配置调整离群检测的定时任务, 配置没有变化时保留原有任务; 关闭离群检测时取消任务并恢复所有被摘除的实例
+     */
+    private void scheduleOutlierDetection() {
+        OutlierDetectionConfig detectionConfig = config.getOutlierDetection();
+        if (Objects.equals(detectionConfig, outlierDetectionConfig)) {
+            return;
+        }
+        if (Objects.nonNull(outlierDetectionHandle)) {
+            outlierDetectionHandle.cancel();
+            outlierDetectionHandle = null;
+        }
+        outlierDetectionConfig = detectionConfig;
+        if (Objects.isNull(detectionConfig)) {
+            outlierDetector = null;
+            boolean changed = false;
+            for (Tuple<EquivalentAddressGroup, PolarisSubChannel> tuple : subChannels.values()) {
+                if (tuple.getB().isEjected()) {
+                    tuple.getB().getOutlierStats().uneject();
+                    changed = true;
+                }
+            }
+            if (changed) {
+                updateBalancingState();
+            }
+            return;
+        }
+        outlierDetector = new OutlierDetector(detectionConfig);
+        long interval = Math.max(100, detectionConfig.getIntervalMills());
+        outlierDetectionHandle = helper.getSynchronizationContext().scheduleWithFixedDelay(this::detectOutliers,
+                interval, interval, TimeUnit.MILLISECONDS, helper.getScheduledExecutorService());
+    }
+
+    /**
+     * 离群检测, 只有被摘除的实例集合发生变化时才重建 picker
+     */
+    private void detectOutliers() {
+        List<PolarisSubChannel> channels = subChannels.values().stream().map(Tuple::getB)
+                .collect(Collectors.toList());
+        if (outlierDetector.detect(channels, System.nanoTime())) {
+            updateBalancingState();
+        }
+    }
+
+    private static boolean isReady(PolarisSubChannel channel) {
+        return GrpcHelper.getSubChannelStateInfoRef(channel).getValue().getState() == READY;
+    }
+
     private void updateBalancingState() {
         AtomicReference<Attributes> holder = new AtomicReference<>();
         Map<PolarisSubChannel, PolarisSubChannel> activeList = GrpcHelper.filterNonFailingSubChannels(subChannels,
                 holder);
+        if (activeList.keySet().stream().anyMatch(PolarisSubChannel::isEjected)
+                && !activeList.keySet().stream().allMatch(PolarisSubChannel::isEjected)) {
+            // 被离群检测摘除的实例不参与负载均衡, 全部被摘除时忽略摘除
+            activeList.keySet().removeIf(PolarisSubChannel::isEjected);
+        }
+        if (config.isLazyConnect() && !activeList.isEmpty()) {
+            // 未连接的实例作为候选参与路由, 被 picker 选中时才发起连接
+            for (Tuple<EquivalentAddressGroup, PolarisSubChannel> tuple : subChannels.values()) {
+                PolarisSubChannel channel = tuple.getB();
+                ConnectivityState state = GrpcHelper.getSubChannelStateInfoRef(channel).getValue().getState();
+                channel.setStandby(state == IDLE);
+                if (state == IDLE) {
+                    activeList.put(channel, channel);
+                }
+            }
+        }
         if (activeList.isEmpty()) {
             boolean isConnecting = false;
             Status aggStatus = EMPTY_OK;
@@ -198,8 +450,10 @@ public class PolarisLoadBalancer extends LoadBalancer {
             }
             updateBalancingState(isConnecting ? CONNECTING : TRANSIENT_FAILURE, new EmptyPicker(aggStatus));
         } else {
-            updateBalancingState(READY, new PolarisPicker(activeList, context, this.consumerAPI,
-                    this.routerAPI, sourceService, holder.get()));
+            List<PolarisSubChannel> allChannels = subChannels.values().stream().map(Tuple::getB)
+                    .collect(Collectors.toList());
+            updateBalancingState(READY, new PolarisPicker(activeList, allChannels, context, this.consumerAPI,
+                    this.routerAPI, this.routePlanCache, config, sourceService, holder.get()));
         }
     }
 
@@ -212,7 +466,34 @@ public class PolarisLoadBalancer extends LoadBalancer {
 
     @Override
     public void shutdown() {
+        if (Objects.nonNull(idleCheckHandle)) {
+            idleCheckHandle.cancel();
+            idleCheckHandle = null;
+        }
+        if (Objects.nonNull(slowStartHandle)) {
+            slowStartHandle.cancel();
+            slowStartHandle = null;
+        }
+        if (Objects.nonNull(outlierDetectionHandle)) {
+            outlierDetectionHandle.cancel();
+            outlierDetectionHandle = null;
+        }
+        slowStartPeriodMills = 0;
+        outlierDetectionConfig = null;
+        subChannels.values().forEach(tuple -> removeMetrics(tuple.getB()));
+    }
+
+    /**
+     * 同一个实例可能被多个 channel 使用, 耗时统计按照引用计数管理, 最后一个使用者释放时才清理
+     */
+    private static void acquireMetrics(PolarisSubChannel channel) {
+        ClientMetrics.acquireInstance(channel.getNamespace(), channel.getService(), channel.getHost(),
+                channel.getPort());
+    }
 
+    private static void removeMetrics(PolarisSubChannel channel) {
+        ClientMetrics.releaseInstance(channel.getNamespace(), channel.getService(), channel.getHost(),
+                channel.getPort());
     }
 
     private String buildKey(EquivalentAddressGroup group) {
@@ -17,10 +17,15 @@
 package com.tencent.polaris.grpc.loadbalance;
 
 import com.tencent.polaris.client.api.SDKContext;
+import com.tencent.polaris.factory.api.DiscoveryAPIFactory;
 import io.grpc.LoadBalancer;
 import io.grpc.LoadBalancer.Helper;
 import io.grpc.LoadBalancerProvider;
 import io.grpc.LoadBalancerRegistry;
+import io.grpc.NameResolver.ConfigOrError;
+import io.grpc.Status;
+
+import java.util.Map;
 
 /**
  * Provider of {@link LoadBalancer}s.  Each provider is bounded to a load-balancing policy name.
@@ -43,8 +48,11 @@ public class PolarisLoadBalancerProvider extends LoadBalancerProvider {
 
     private final SDKContext context;
 
+    private final RoutePlanCache routePlanCache;
+
     public PolarisLoadBalancerProvider(SDKContext context) {
         this.context = context;
+        this.routePlanCache = new RoutePlanCache(context, DiscoveryAPIFactory.createConsumerAPIByContext(context));
     }
 
     @Override
@@ -64,6 +72,16 @@ public class PolarisLoadBalancerProvider extends LoadBalancerProvider {
 
     @Override
     public LoadBalancer newLoadBalancer(Helper helper) {
-        return new PolarisLoadBalancer(context, helper);
+        return new PolarisLoadBalancer(context, helper, routePlanCache);
+    }
+
+    @Override
+    public ConfigOrError parseLoadBalancingPolicyConfig(Map<String, ?> rawLoadBalancingPolicyConfig) {
+        try {
+            return ConfigOrError.fromConfig(LoadBalanceConfig.parse(rawLoadBalancingPolicyConfig));
+        } catch (RuntimeException e) {
+            return ConfigOrError.fromError(Status.INVALID_ARGUMENT.withCause(e)
+                    .withDescription("[grpc-polaris] parse polaris load balancing config fail"));
+        }
     }
 }
@@ -22,15 +22,12 @@ import com.tencent.polaris.api.exception.PolarisException;
 import com.tencent.polaris.api.pojo.DefaultServiceInstances;
 import com.tencent.polaris.api.pojo.Instance;
 import com.tencent.polaris.api.pojo.RouteArgument;
-import com.tencent.polaris.api.pojo.ServiceEventKey.EventType;
 import com.tencent.polaris.api.pojo.ServiceInfo;
 import com.tencent.polaris.api.pojo.ServiceInstances;
 import com.tencent.polaris.api.pojo.ServiceKey;
 import com.tencent.polaris.api.pojo.SourceService;
-import com.tencent.polaris.api.rpc.GetServiceRuleRequest;
-import com.tencent.polaris.api.rpc.ServiceRuleResponse;
-import com.tencent.polaris.api.utils.StringUtils;
 import com.tencent.polaris.client.api.SDKContext;
+import com.tencent.polaris.grpc.loadbalance.RoutePlanCache.RoutePlan;
 import com.tencent.polaris.grpc.util.ClientCallInfo;
 import com.tencent.polaris.grpc.util.Common;
 import com.tencent.polaris.grpc.util.PolarisHelper;
@@ -39,9 +36,6 @@ import com.tencent.polaris.router.api.rpc.ProcessLoadBalanceRequest;
 import com.tencent.polaris.router.api.rpc.ProcessLoadBalanceResponse;
 import com.tencent.polaris.router.api.rpc.ProcessRoutersRequest;
 import com.tencent.polaris.router.api.rpc.ProcessRoutersResponse;
-import com.tencent.polaris.specification.api.v1.traffic.manage.RoutingProto.Route;
-import com.tencent.polaris.specification.api.v1.traffic.manage.RoutingProto.Routing;
-import com.tencent.polaris.specification.api.v1.traffic.manage.RoutingProto.Source;
 import io.grpc.Attributes;
 import io.grpc.Context;
 import io.grpc.LoadBalancer.PickResult;
@@ -50,22 +44,24 @@ import io.grpc.LoadBalancer.Subchannel;
 import io.grpc.LoadBalancer.SubchannelPicker;
 import io.grpc.Metadata;
 import io.grpc.Metadata.Key;
+import io.grpc.MethodDescriptor;
 import io.grpc.Status;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import static com.tencent.polaris.api.utils.RuleUtils.MATCH_ALL;
-
 /**
  * The main balancing logic.  It <strong>must be thread-safe</strong>. Typically it should only
  * synchronize on its own state, and avoid synchronizing with the LoadBalancer's state.
@@ -76,161 +72,274 @@ public class PolarisPicker extends SubchannelPicker {
 
     private static final Logger LOG = LoggerFactory.getLogger(PolarisPicker.class);
 
-    private final Map<PolarisSubChannel, PolarisSubChannel> channels;
+    /**
+     * 单个 picker 最多缓存的本地负载均衡器个数, 路由规则能产生的候选集合通常很少
+     */
+    private static final int MAX_BALANCERS = 64;
 
     private final SDKContext context;
 
     private final ConsumerAPI consumerAPI;
 
-    private final Attributes attributes;
-
     private final ServiceKey sourceService;
 
     private final RouterAPI routerAPI;
 
+    private final LoadBalanceConfig config;
+
+    private final ServiceKey target;
+
+    private final RoutePlanCache.Holder routePlan;
+
+    /**
+     * picker 构建时生成的实例快照, 整个 picker 生命周期内不再变化
+     */
+    private final PolarisSubChannel[] subChannels;
+
+    /**
+     * instance id -> {@link #subChannels} 下标
+     */
+    private final Map<String, Integer> indexes;
+
+    private final ServiceInstances serviceInstances;
+
+    private final RouteResultCache routeCache;
+
+    private final LocalityPartitions locality;
+
+    private final PickResultCache pickResults;
+
+    /**
+     * 路由后的候选实例 -> 本地负载均衡器, ring hash、maglev 等查找表只在同一个 picker 内第一次遇到该候选集合时构建,
+     * 不随路由结果缓存过期而重建
+     */
+    private final Map<List<PolarisSubChannel>, LocalLoadBalancer> balancers = new ConcurrentHashMap<>();
+
     public PolarisPicker(final Map<PolarisSubChannel, PolarisSubChannel> channels,
+                         final Collection<PolarisSubChannel> allChannels,
                          final SDKContext context,
                          final ConsumerAPI consumerAPI,
                          final RouterAPI routerAPI,
+                         final RoutePlanCache routePlanCache,
+                         final LoadBalanceConfig config,
                          final ServiceKey sourceService,
                          final Attributes attributes) {
         this.context = context;
-        this.channels = channels;
         this.consumerAPI = consumerAPI;
         this.routerAPI = routerAPI;
-        this.attributes = attributes;
+        this.config = config;
         this.sourceService = sourceService;
+        this.target = new ServiceKey(attributes.get(Common.TARGET_NAMESPACE_KEY),
+                attributes.get(Common.TARGET_SERVICE_KEY));
+        ServiceKey source = null;
+        if (Objects.nonNull(sourceService)) {
+            source = new ServiceKey(sourceService.getNamespace(), sourceService.getService());
+        }
+        this.routePlan = routePlanCache.holder(target, source);
+
+        this.subChannels = channels.keySet().toArray(new PolarisSubChannel[0]);
+        Map<String, Integer> indexes = new HashMap<>(subChannels.length * 2);
+        for (int i = 0; i < subChannels.length; i++) {
+            indexes.put(subChannels[i].getId(), i);
+        }
+        this.indexes = Collections.unmodifiableMap(indexes);
+        this.serviceInstances = new DefaultServiceInstances(target,
+                Collections.unmodifiableList(Arrays.asList((Instance[]) subChannels)));
+        LoadBalancerStats stats = LoadBalancerStats.of(target);
+        stats.updateInstances(subChannels);
+        this.routeCache = new RouteResultCache(config.getRouteCacheSize(), config.getRouteCacheExpireMills(), stats);
+        this.locality = LocalityPartitions.build(config, subChannels, allChannels);
+        this.pickResults = new PickResultCache(subChannels.length, PickResultCache.DEFAULT_MAX_SIZE);
+        // 没有路由规则时所有请求都使用全量实例, 在构建 picker 时提前准备好, 避免在请求线程中构建查找表
+        balancerOf(locality.filter(subChannels));
     }
 
     @Override
     public PickResult pickSubchannel(PickSubchannelArgs args) {
-        if (channels.isEmpty()) {
+        if (subChannels.length == 0) {
             return PickResult.withNoResult();
         }
 
-        final String targetNamespace = attributes.get(Common.TARGET_NAMESPACE_KEY);
-        final String targetService = attributes.get(Common.TARGET_SERVICE_KEY);
-        final ServiceKey target = new ServiceKey(targetNamespace, targetService);
-
-        List<Instance> instances = new ArrayList<>();
-        channels.forEach((key, val) -> instances.add(val));
-
-        ServiceInstances serviceInstances = new DefaultServiceInstances(target, instances);
-
         try {
-            Instance instance = doLoadBalance(doRoute(serviceInstances, target, args));
-            Subchannel channel = channels.get(new PolarisSubChannel(instance));
+            PolarisSubChannel channel = doLoadBalance(doRoute(args), args);
 
             if (Objects.isNull(channel)) {
                 return PickResult.withNoResult();
             }
 
-            return PickResult.withSubchannel(channel,
-                    new PolarisClientStreamTracerFactory(ClientCallInfo.builder()
-                            .consumerAPI(consumerAPI)
-                            .instance(instance)
-                            .targetNamespace(targetNamespace)
-                            .targetService(targetService)
-                            .method(args.getMethodDescriptor().getBareMethodName())
-                            .build()));
+            return pickResult(channel, args.getMethodDescriptor());
         } catch (PolarisException e) {
             LOG.error("[grpc-polaris] pick subChannel fail", e);
             return PickResult.withError(Status.UNKNOWN.withCause(e));
         }
     }
 
-    Instance doLoadBalance(ServiceInstances serviceInstances) {
-        if (serviceInstances.getInstances().size() == 1) {
-            return serviceInstances.getInstances().get(0);
+    private PickResult pickResult(PolarisSubChannel channel, MethodDescriptor<?, ?> method) {
+        // getBareMethodName 每次调用都会截取字符串, 缓存使用 full method name 作为 key
+        final String fullMethodName = method.getFullMethodName();
+        final Integer index = indexes.get(channel.getId());
+        if (Objects.nonNull(index)) {
+            PickResult cached = pickResults.get(index, fullMethodName);
+            if (Objects.nonNull(cached)) {
+                return cached;
+            }
+        }
+
+        PickResult result = PickResult.withSubchannel(channel,
+                new PolarisClientStreamTracerFactory(ClientCallInfo.builder()
+                        .consumerAPI(consumerAPI)
+                        .instance(channel)
+                        .targetNamespace(target.getNamespace())
+                        .targetService(target.getService())
+                        .method(method.getBareMethodName())
+                        .build()));
+        if (Objects.nonNull(index)) {
+            pickResults.put(index, fullMethodName, result);
+        }
+        return result;
+    }
+
+    private PolarisSubChannel lookup(Instance instance) {
+        if (Objects.isNull(instance)) {
+            return null;
+        }
+        if (instance instanceof PolarisSubChannel) {
+            return (PolarisSubChannel) instance;
+        }
+        Integer index = indexes.get(instance.getId());
+        return Objects.isNull(index) ? null : subChannels[index];
+    }
+
+    ServiceInstances getServiceInstances() {
+        return serviceInstances;
+    }
+
+    PolarisSubChannel doLoadBalance(RouteResult route, PickSubchannelArgs args) {
+        PolarisSubChannel[] candidates = route.getChannels();
+        PolarisSubChannel selected = choose(route.getInstances(), candidates, route.getBalancer(), args);
+        if (Objects.isNull(selected) || !selected.isStandby()) {
+            return selected;
+        }
+        // 懒连接模式下选中了还没有连接的实例时, 发起连接, 本次请求改为在已经连接的候选实例上使用同一种负载均衡策略选择,
+        // 保持一致性哈希的亲和性以及加权的选择; 没有已经连接的候选实例时返回 null, 请求会等待下一个 picker
+        selected.requestConnectionAsync();
+        List<PolarisSubChannel> connected = new ArrayList<>(candidates.length);
+        for (PolarisSubChannel channel : candidates) {
+            if (!channel.isStandby()) {
+                connected.add(channel);
+            }
+        }
+        PolarisSubChannel[] ready = connected.toArray(new PolarisSubChannel[0]);
+        return choose(null, ready, balancerOf(ready), args);
+    }
+
+    /**
+     * @param instances  候选实例, 为 null 时根据 candidates 构建, 只在交给 SDK 负载均衡时使用
+     * @param candidates 候选实例
+     * @param balancer   本地负载均衡器, 为 null 时交给 SDK 负载均衡
+     */
+    private PolarisSubChannel choose(ServiceInstances instances, PolarisSubChannel[] candidates,
+            LocalLoadBalancer balancer, PickSubchannelArgs args) {
+        if (candidates.length == 0) {
+            return null;
+        }
+        if (candidates.length == 1) {
+            return candidates[0];
+        }
+        if (Objects.nonNull(balancer)) {
+            return balancer.choose(args);
         }
 
         ProcessLoadBalanceRequest request = new ProcessLoadBalanceRequest();
-        request.setDstInstances(serviceInstances);
+        request.setDstInstances(Objects.nonNull(instances) ? instances : new DefaultServiceInstances(target,
+                Collections.unmodifiableList(Arrays.asList((Instance[]) candidates))));
 
         ProcessLoadBalanceResponse response = routerAPI.processLoadBalance(request);
-        return response.getTargetInstance();
+        return lookup(response.getTargetInstance());
     }
 
-    ServiceInstances doRoute(ServiceInstances serviceInstances, ServiceKey target, PickSubchannelArgs args) {
+    RouteResult doRoute(PickSubchannelArgs args) {
+        final RoutePlan plan = routePlan.get();
+        final Set<RouteArgument> arguments = collectRoutingLabels(plan, args);
+        final String method = args.getMethodDescriptor().getFullMethodName();
+        final RouteResultCache.RouteKey cacheKey = RouteResultCache.key(method, arguments);
+
+        RouteResult cached = routeCache.get(plan, cacheKey);
+        if (Objects.nonNull(cached)) {
+            return cached;
+        }
+
         ProcessRoutersRequest request = new ProcessRoutersRequest();
         request.setDstInstances(serviceInstances);
 
         final SourceService serviceInfo = new SourceService();
-        ServiceKey source = null;
         if (Objects.nonNull(sourceService)) {
-            source = new ServiceKey(sourceService.getNamespace(), sourceService.getService());
             serviceInfo.setNamespace(sourceService.getNamespace());
             serviceInfo.setService(sourceService.getService());
         }
 
-        serviceInfo.setArguments(collectRoutingLabels(loadRouteRule(target, source), args));
+        serviceInfo.setArguments(arguments);
         request.setSourceService(serviceInfo);
 
         ProcessRoutersResponse response = routerAPI.processRouters(request);
 
-        return response.getServiceInstances();
+        RouteResult result = buildRouteResult(response.getServiceInstances());
+        routeCache.put(plan, cacheKey, result);
+        return result;
     }
 
-    private Set<RouteArgument> collectRoutingLabels(List<Route> routes, PickSubchannelArgs args) {
-        Set<String> labelKeys = new HashSet<>();
-        routes.forEach(route -> {
-            for (Source source : route.getSourcesList()) {
-                labelKeys.addAll(source.getMetadataMap().keySet());
-            }
-        });
-
-        final Set<RouteArgument> arguments = new HashSet<>();
-        final Metadata headers = args.getHeaders();
-
-        labelKeys.forEach(labelKey -> {
-            if (StringUtils.equals(labelKey, RouteArgument.LABEL_KEY_PATH)) {
-                arguments.add(RouteArgument.buildPath(args.getMethodDescriptor().getFullMethodName()));
-                return;
-            }
-            if (labelKey.startsWith(RouteArgument.LABEL_KEY_HEADER)) {
-                String headerKey = labelKey.substring(RouteArgument.LABEL_KEY_HEADER.length() + 1);
-                arguments.add(RouteArgument.buildHeader(headerKey, headers.get(Key.of(headerKey, Metadata.ASCII_STRING_MARSHALLER))));
-                return;
-            }
-            if (labelKey.startsWith(RouteArgument.LABEL_KEY_CALLER_IP)) {
-                arguments.add(RouteArgument.buildCallerIP(context.getConfig().getGlobal().getAPI().getBindIP()));
+    private RouteResult buildRouteResult(ServiceInstances instances) {
+        List<Instance> routed = Objects.isNull(instances) ? Collections.emptyList() : instances.getInstances();
+        List<PolarisSubChannel> channels = new ArrayList<>(routed.size());
+        for (Instance instance : routed) {
+            PolarisSubChannel channel = lookup(instance);
+            if (Objects.nonNull(channel)) {
+                channels.add(channel);
             }
-        });
-
-        return PolarisHelper.getLabelsInject().modifyRoute(new HashSet<>(arguments));
+        }
+        PolarisSubChannel[] routedChannels = channels.toArray(new PolarisSubChannel[0]);
+        PolarisSubChannel[] candidates = locality.filter(routedChannels);
+        if (candidates != routedChannels) {
+            instances = new DefaultServiceInstances(target, Collections.unmodifiableList(
+                    Arrays.asList((Instance[]) candidates)));
+        }
+        return new RouteResult(instances, candidates, balancerOf(candidates));
     }
 
-    private List<Route> loadRouteRule(ServiceKey target, ServiceKey source) {
-        List<Route> rules = new ArrayList<>();
-
-        GetServiceRuleRequest inBoundReq = new GetServiceRuleRequest();
-        inBoundReq.setService(target.getService());
-        inBoundReq.setNamespace(target.getNamespace());
-        inBoundReq.setRuleType(EventType.ROUTING);
-
-        ServiceRuleResponse inBoundResp = consumerAPI.getServiceRule(inBoundReq);
-        Routing inBoundRule = (Routing) inBoundResp.getServiceRule().getRule();
-        if (Objects.nonNull(inBoundRule)) {
-            List<Route> tmpRules = new RouteResp(inBoundRule.getInboundsList(), target).doFilter();
-            rules.addAll(tmpRules);
+    private LocalLoadBalancer balancerOf(PolarisSubChannel[] candidates) {
+        if (candidates.length <= 1) {
+            return null;
         }
-
-        if (Objects.isNull(source)) {
-            return rules;
+        List<PolarisSubChannel> key = Arrays.asList(candidates);
+        LocalLoadBalancer balancer = balancers.get(key);
+        if (Objects.nonNull(balancer)) {
+            return balancer;
+        }
+        balancer = LocalLoadBalancer.create(config, candidates);
+        if (Objects.isNull(balancer) || balancers.size() >= MAX_BALANCERS) {
+            return balancer;
         }
+        LocalLoadBalancer previous = balancers.putIfAbsent(key, balancer);
+        return Objects.isNull(previous) ? balancer : previous;
+    }
 
-        GetServiceRuleRequest outBoundReq = new GetServiceRuleRequest();
-        outBoundReq.setService(source.getService());
-        outBoundReq.setNamespace(source.getNamespace());
-        outBoundReq.setRuleType(EventType.ROUTING);
+    private Set<RouteArgument> collectRoutingLabels(RoutePlan plan, PickSubchannelArgs args) {
+        final Set<RouteArgument> arguments = new HashSet<>();
+        final Metadata headers = args.getHeaders();
 
-        ServiceRuleResponse outBoundResp = consumerAPI.getServiceRule(outBoundReq);
-        Routing outBoundRule = (Routing) outBoundResp.getServiceRule().getRule();
-        if (Objects.nonNull(outBoundRule)) {
-            List<Route> tmpRules = new RouteResp(outBoundRule.getOutboundsList(), source).doFilter();
-            rules.addAll(tmpRules);
+        if (plan.isRequirePath()) {
+            arguments.add(RouteArgument.buildPath(args.getMethodDescriptor().getFullMethodName()));
+        }
+        String[] headerNames = plan.getHeaderNames();
+        Key<String>[] headerKeys = plan.getHeaderKeys();
+        for (int i = 0; i < headerKeys.length; i++) {
+            arguments.add(RouteArgument.buildHeader(headerNames[i], headers.get(headerKeys[i])));
+        }
+        if (plan.isRequireCallerIp()) {
+            arguments.add(RouteArgument.buildCallerIP(context.getConfig().getGlobal().getAPI().getBindIP()));
         }
-        return rules;
+
+        return PolarisHelper.getLabelsInject().modifyRoute(arguments);
     }
 
     public static final class EmptyPicker extends SubchannelPicker {
@@ -245,42 +354,4 @@ public class PolarisPicker extends SubchannelPicker {
             return this.status.isOk() ? PickResult.withNoResult() : PickResult.withError(this.status);
         }
     }
-
-    private static class RouteResp {
-
-        final List<Route> rule;
-        final ServiceKey serviceKey;
-
-        private RouteResp(List<Route> rule, ServiceKey serviceKey) {
-            this.rule = rule;
-            this.serviceKey = serviceKey;
-        }
-
-
-        List<Route> doFilter() {
-            List<Route> newRule = rule.stream().filter((Predicate<Route>) route -> {
-                for (Source source : route.getSourcesList()) {
-
-                    if (Objects.equals(source.getNamespace().getValue(), MATCH_ALL) &&
-                            Objects.equals(source.getService().getValue(), MATCH_ALL)) {
-                        return true;
-                    }
-
-                    if (Objects.equals(source.getNamespace().getValue(), MATCH_ALL) &&
-                            Objects.equals(source.getService().getValue(), serviceKey.getService())) {
-                        return true;
-                    }
-
-                    if (Objects.equals(source.getNamespace().getValue(), serviceKey.getNamespace()) &&
-                            Objects.equals(source.getService().getValue(), serviceKey.getService())) {
-                        return true;
-                    }
-                }
-
-                return false;
-            }).collect(Collectors.toList());
-
-            return newRule;
-        }
-    }
 }
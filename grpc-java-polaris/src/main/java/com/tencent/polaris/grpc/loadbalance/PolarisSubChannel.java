@@ -27,35 +27,119 @@ import io.grpc.ChannelLogger;
 import io.grpc.EquivalentAddressGroup;
 import io.grpc.LoadBalancer.Subchannel;
 import io.grpc.LoadBalancer.SubchannelStateListener;
+import io.grpc.SynchronizationContext;
 import java.util.Collection;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
 
 /**
  * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
  */
 public class PolarisSubChannel extends Subchannel implements Instance {
 
+    private static final long ACTIVE_GRANULARITY_NANOS = TimeUnit.SECONDS.toNanos(1);
+
     private final Subchannel channel;
 
     private volatile Instance instance;
 
+    /**
+     * 当前在途的请求数, LongAdder 内部按线程分段并做了缓存行填充, 避免高并发下多个 channel 的计数互相伪共享
+     */
+    private final LongAdder outstandingRequests = new LongAdder();
+
+    private PeakEwma peakEwma = new PeakEwma();
+
+    private OutlierStats outlierStats = new OutlierStats();
+
+    /**
+     * 懒连接模式下已经发起过连接, 在连接断开回到 IDLE 之前不再重复发起
+     */
+    private final AtomicBoolean connectRequested = new AtomicBoolean(false);
+
+    /**
+     * picker 线程已经投递了连接任务, 还没有在同步上下文中执行
+     */
+    private final AtomicBoolean connectScheduled = new AtomicBoolean(false);
+
+    /**
+     * grpc 要求 {@link Subchannel#requestConnection()} 只能在 LB 的同步上下文中调用
+     */
+    private final SynchronizationContext syncContext;
+
+    /**
+     * 懒连接模式下还没有建立连接, 只是作为候选参与路由, 被选中时才发起连接
+     */
+    private volatile boolean standby;
+
+    private volatile long lastActiveNanos = System.nanoTime();
+
+    /**
+     * 首次连接成功的时间, 用于新实例预热
+     */
+    private volatile long readySinceNanos;
+
+    /**
+     * 预热期间的有效权重, -1 表示没有处于预热期, 直接使用实例配置的权重
+     */
+    private volatile int slowStartWeight = -1;
+
+    /**
+     * 被调服务处于 panic 模式, 实例按照健康处理, 避免被路由过滤
+     */
+    private volatile boolean panic;
+
     PolarisSubChannel(Instance instance) {
         Preconditions.checkNotNull(instance, "instance");
         this.channel = null;
         this.instance = instance;
+        this.syncContext = null;
     }
 
     public PolarisSubChannel(Subchannel channel, Instance instance) {
+        this(channel, instance, null);
+    }
+
+    PolarisSubChannel(Subchannel channel, Instance instance, SynchronizationContext syncContext) {
         Preconditions.checkNotNull(channel, "channel");
         Preconditions.checkNotNull(instance, "instance");
         this.channel = channel;
         this.instance = instance;
+        this.syncContext = syncContext;
     }
 
-    public void setInstance(Instance instance) {
+    /**
+     * 更新实例信息
+     *
+     * @param instance 最新的实例
+     * @return 权重、地域或者元数据是否发生变化, 发生变化时 picker 中的负载均衡查找表、就近路由分区以及路由结果都需要重建
+     */
+    public boolean setInstance(Instance instance) {
         Preconditions.checkNotNull(instance, "instance");
+        Instance previous = this.instance;
         this.instance = instance;
+        return previous.getWeight() != instance.getWeight()
+                || !Objects.equals(previous.getRegion(), instance.getRegion())
+                || !Objects.equals(previous.getZone(), instance.getZone())
+                || !Objects.equals(previous.getCampus(), instance.getCampus())
+                || !Objects.equals(previous.getMetadata(), instance.getMetadata());
+    }
+
+    /**
+     * 空闲连接被关闭后用新的 subChannel 替换时, 继承旧 subChannel 上累积的状态, 必须在新 subChannel 对外可见之前调用
+     *
+     * @param previous 被替换的 subChannel
+     */
+    void inheritState(PolarisSubChannel previous) {
+        this.peakEwma = previous.peakEwma;
+        this.outlierStats = previous.outlierStats;
+        this.readySinceNanos = previous.readySinceNanos;
+        this.slowStartWeight = previous.slowStartWeight;
+        this.panic = previous.panic;
     }
 
     public Subchannel getChannel() {
@@ -66,6 +150,147 @@ public class PolarisSubChannel extends Subchannel implements Instance {
         return instance;
     }
 
+    /**
+     * @return 当前在途的请求数
+     */
+    public long getOutstandingRequests() {
+        return outstandingRequests.sum();
+    }
+
+    /**
+     * @return 衰减到当前时刻的 peak EWMA 延迟, 单位纳秒
+     */
+    public double getPeakEwmaLatency() {
+        return peakEwma.getCost();
+    }
+
+    /**
+     * @return peak EWMA 延迟与在途请求数的综合负载分数, 分数越低越优先
+     */
+    public double getPeakEwmaScore() {
+        return peakEwma.score(getOutstandingRequests());
+    }
+
+    /**
+     * @return 是否被本地离群检测摘除
+     */
+    public boolean isEjected() {
+        return outlierStats.isEjected();
+    }
+
+    OutlierStats getOutlierStats() {
+        return outlierStats;
+    }
+
+    void setPeakEwmaDecayMills(long decayMills) {
+        peakEwma.setDecayMills(decayMills);
+    }
+
+    void onLatency(long rttNanos) {
+        peakEwma.observe(rttNanos);
+    }
+
+    void markReady() {
+        if (readySinceNanos == 0) {
+            readySinceNanos = System.nanoTime();
+        }
+    }
+
+    long getReadySinceNanos() {
+        return readySinceNanos;
+    }
+
+    /**
+     * @return 实例配置的权重, 不受预热影响
+     */
+    int getConfiguredWeight() {
+        return instance.getWeight();
+    }
+
+    int getSlowStartWeight() {
+        return slowStartWeight;
+    }
+
+    void setSlowStartWeight(int slowStartWeight) {
+        this.slowStartWeight = slowStartWeight;
+    }
+
+    boolean isStandby() {
+        return standby;
+    }
+
+    void setStandby(boolean standby) {
+        this.standby = standby;
+    }
+
+    /**
+     * 发起连接, 多次调用只会发起一次, 直到 {@link #resetConnectRequest()}
+     *
+     * @return 本次是否真正发起了连接
+     */
+    boolean requestConnectionOnce() {
+        if (connectRequested.compareAndSet(false, true)) {
+            lastActiveNanos = System.nanoTime();
+            try {
+                channel.requestConnection();
+            } catch (RuntimeException e) {
+                connectRequested.set(false);
+                throw e;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * 供 picker 线程使用, 把连接请求投递到同步上下文中执行, 连接标记也只在同步上下文中设置
+     */
+    void requestConnectionAsync() {
+        if (connectRequested.get() || !connectScheduled.compareAndSet(false, true)) {
+            return;
+        }
+        Runnable task = () -> {
+            try {
+                requestConnectionOnce();
+            } finally {
+                connectScheduled.set(false);
+            }
+        };
+        if (Objects.isNull(syncContext)) {
+            task.run();
+            return;
+        }
+        syncContext.execute(task);
+    }
+
+    boolean isConnectRequested() {
+        return connectRequested.get();
+    }
+
+    void resetConnectRequest() {
+        connectRequested.set(false);
+    }
+
+    /**
+     * @return 最近一次发起请求或者发起连接的时间
+     */
+    long getLastActiveNanos() {
+        return lastActiveNanos;
+    }
+
+    void onStreamStarted() {
+        long now = System.nanoTime();
+        // 只在跨过统计粒度时写入, 避免每次请求都写同一个 volatile 字段
+        if (now - lastActiveNanos > ACTIVE_GRANULARITY_NANOS) {
+            lastActiveNanos = now;
+        }
+        outstandingRequests.increment();
+    }
+
+    void onStreamClosed() {
+        outstandingRequests.decrement();
+    }
+
     @Override
     public String getNamespace() {
         return instance.getNamespace();
@@ -96,9 +321,13 @@ public class PolarisSubChannel extends Subchannel implements Instance {
         return instance.getCircuitBreakerStatus(statusDimension);
     }
 
+    void setPanic(boolean panic) {
+        this.panic = panic;
+    }
+
     @Override
     public boolean isHealthy() {
-        return instance.isHealthy();
+        return panic || instance.isHealthy();
     }
 
     @Override
@@ -163,7 +392,8 @@ public class PolarisSubChannel extends Subchannel implements Instance {
 
     @Override
     public int getWeight() {
-        return instance.getWeight();
+        int weight = slowStartWeight;
+        return weight >= 0 ? weight : instance.getWeight();
     }
 
     @Override
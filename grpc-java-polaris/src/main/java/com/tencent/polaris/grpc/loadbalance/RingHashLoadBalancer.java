@@ -0,0 +1,99 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import java.util.Arrays;
+
+/**
+ * ketama 风格的 ring hash, 每个实例按照权重在环上放置若干个虚拟节点, 环的大小不超过
+ * {@link LoadBalanceConfig#getHashRingSize()}, 实例上下线时只有相邻区间的 key 会迁移。
+ * 环在 picker 快照构建时一次性生成, 选择时一次哈希加一次二分查找
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class RingHashLoadBalancer extends ConsistentHashLoadBalancer {
+
+    static final int DEFAULT_RING_SIZE = 4096;
+
+    private final long[] ring;
+
+    private final int[] owners;
+
+    RingHashLoadBalancer(PolarisSubChannel[] channels, LoadBalanceConfig config) {
+        super(channels, config);
+        final int[] weights = weights(channels);
+        long total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+        final int ringSize = Math.max(config.getHashRingSize(), channels.length);
+        // 每单位权重的虚拟节点数向下取 2 的幂, 实例增减时只要总权重没有跨过 2 倍的边界, 其余实例的虚拟节点保持不变,
+        // 只有被移除实例上的 key 会迁移
+        final double unit = Math.scalb(1.0, Math.getExponent((double) ringSize / total));
+
+        int[] replicas = new int[channels.length];
+        int size = 0;
+        for (int i = 0; i < channels.length; i++) {
+            replicas[i] = weights[i] == 0 ? 0 : (int) Math.max(1, Math.round(weights[i] * unit));
+            size += replicas[i];
+        }
+
+        Node[] nodes = new Node[size];
+        int pos = 0;
+        for (int i = 0; i < channels.length; i++) {
+            String identity = identity(channels[i]);
+            for (int j = 0; j < replicas[i]; j++) {
+                nodes[pos++] = new Node(hash(identity + "_" + j), i);
+            }
+        }
+        Arrays.sort(nodes, (a, b) -> Long.compareUnsigned(a.hash, b.hash));
+
+        this.ring = new long[size];
+        this.owners = new int[size];
+        for (int i = 0; i < size; i++) {
+            ring[i] = nodes[i].hash;
+            owners[i] = nodes[i].owner;
+        }
+    }
+
+    @Override
+    PolarisSubChannel select(long hash) {
+        int low = 0;
+        int high = ring.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (Long.compareUnsigned(ring[mid], hash) < 0) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return channels[owners[low == ring.length ? 0 : low]];
+    }
+
+    private static final class Node {
+
+        private final long hash;
+
+        private final int owner;
+
+        private Node(long hash, int owner) {
+            this.hash = hash;
+            this.owner = owner;
+        }
+    }
+}
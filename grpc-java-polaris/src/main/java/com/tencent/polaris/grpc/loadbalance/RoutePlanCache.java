@@ -0,0 +1,330 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.tencent.polaris.api.core.ConsumerAPI;
+import com.tencent.polaris.api.plugin.registry.ResourceEventListener;
+import com.tencent.polaris.api.pojo.RegistryCacheValue;
+import com.tencent.polaris.api.pojo.RouteArgument;
+import com.tencent.polaris.api.pojo.ServiceEventKey;
+import com.tencent.polaris.api.pojo.ServiceEventKey.EventType;
+import com.tencent.polaris.api.pojo.ServiceKey;
+import com.tencent.polaris.api.pojo.ServiceRule;
+import com.tencent.polaris.api.rpc.GetServiceRuleRequest;
+import com.tencent.polaris.api.rpc.ServiceRuleResponse;
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.client.api.SDKContext;
+import com.tencent.polaris.specification.api.v1.traffic.manage.RoutingProto.Route;
+import com.tencent.polaris.specification.api.v1.traffic.manage.RoutingProto.Routing;
+import com.tencent.polaris.specification.api.v1.traffic.manage.RoutingProto.Source;
+import io.grpc.Metadata;
+import io.grpc.Metadata.Key;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static com.tencent.polaris.api.utils.RuleUtils.MATCH_ALL;
+
+/**
+ * 按照 (被调服务, 主调服务) 维度缓存编译后的路由规则 {@link RoutePlan}，只有当北极星通知路由规则发生变化时才会重新构建，
+ * 避免每次 pick 都去执行 {@link ConsumerAPI#getServiceRule(GetServiceRuleRequest)} 以及规则过滤
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class RoutePlanCache implements ResourceEventListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RoutePlanCache.class);
+
+    private final ConsumerAPI consumerAPI;
+
+    private final Map<PlanKey, Holder> holders = new ConcurrentHashMap<>();
+
+    public RoutePlanCache(final SDKContext context, final ConsumerAPI consumerAPI) {
+        this.consumerAPI = consumerAPI;
+        context.getExtensions().getLocalRegistry().registerResourceListener(this);
+    }
+
+    @VisibleForTesting
+    RoutePlanCache(final ConsumerAPI consumerAPI) {
+        this.consumerAPI = consumerAPI;
+    }
+
+    /**
+     * 获取 (target, source) 对应的路由规则持有者, 同一组 key 在整个进程内共享同一个 {@link Holder}
+     *
+     * @param target 被调服务
+     * @param source 主调服务, 可以为 null
+     * @return {@link Holder}
+     */
+    public Holder holder(ServiceKey target, ServiceKey source) {
+        return holders.computeIfAbsent(new PlanKey(target, source), key -> new Holder(key, consumerAPI));
+    }
+
+    @Override
+    public void onResourceAdd(ServiceEventKey svcEventKey, RegistryCacheValue newValue) {
+        onRuleChange(svcEventKey, newValue);
+    }
+
+    @Override
+    public void onResourceUpdated(ServiceEventKey svcEventKey, RegistryCacheValue oldValue,
+            RegistryCacheValue newValue) {
+        onRuleChange(svcEventKey, newValue);
+    }
+
+    @Override
+    public void onResourceDeleted(ServiceEventKey svcEventKey, RegistryCacheValue oldValue) {
+        onRuleChange(svcEventKey, null);
+    }
+
+    private void onRuleChange(ServiceEventKey svcEventKey, RegistryCacheValue newValue) {
+        if (svcEventKey.getEventType() != EventType.ROUTING) {
+            return;
+        }
+        final ServiceKey changed = svcEventKey.getServiceKey();
+        final String revision = newValue instanceof ServiceRule ? ((ServiceRule) newValue).getRevision() : null;
+        holders.forEach((key, holder) -> {
+            if (Objects.equals(key.target, changed)) {
+                holder.onRuleChange(true, revision);
+            }
+            if (Objects.equals(key.source, changed)) {
+                holder.onRuleChange(false, revision);
+            }
+        });
+    }
+
+    /**
+     * 持有某一组 (target, source) 最新的 {@link RoutePlan}, pick 路径上只会读取一次 volatile 引用
+     */
+    public static final class Holder {
+
+        private final PlanKey key;
+
+        private final ConsumerAPI consumerAPI;
+
+        private final AtomicLong version = new AtomicLong();
+
+        private volatile RoutePlan plan;
+
+        private Holder(PlanKey key, ConsumerAPI consumerAPI) {
+            this.key = key;
+            this.consumerAPI = consumerAPI;
+        }
+
+        /**
+         * 获取当前生效的路由规则, 只有在规则变更后的第一次调用才会重新向 SDK 获取规则并编译
+         *
+         * @return {@link RoutePlan}
+         */
+        public RoutePlan get() {
+            RoutePlan current = plan;
+            long expect = version.get();
+            if (current != null && current.version == expect) {
+                return current;
+            }
+            RoutePlan newPlan = compile(expect);
+            plan = newPlan;
+            return newPlan;
+        }
+
+        void onRuleChange(boolean inbound, String revision) {
+            RoutePlan current = plan;
+            if (current != null && revision != null
+                    && StringUtils.equals(revision, inbound ? current.inboundRevision : current.outboundRevision)) {
+                return;
+            }
+            LOG.info("[grpc-polaris] routing rule changed, target:{} source:{} revision:{}", key.target, key.source,
+                    revision);
+            version.incrementAndGet();
+        }
+
+        private RoutePlan compile(long planVersion) {
+            List<Route> routes = new ArrayList<>();
+
+            ServiceRule inBoundRule = loadRule(key.target);
+            if (Objects.nonNull(inBoundRule) && Objects.nonNull(inBoundRule.getRule())) {
+                routes.addAll(filter(((Routing) inBoundRule.getRule()).getInboundsList(), key.target));
+            }
+
+            ServiceRule outBoundRule = null;
+            if (Objects.nonNull(key.source)) {
+                outBoundRule = loadRule(key.source);
+                if (Objects.nonNull(outBoundRule) && Objects.nonNull(outBoundRule.getRule())) {
+                    routes.addAll(filter(((Routing) outBoundRule.getRule()).getOutboundsList(), key.source));
+                }
+            }
+
+            return new RoutePlan(planVersion, routes,
+                    Objects.isNull(inBoundRule) ? null : inBoundRule.getRevision(),
+                    Objects.isNull(outBoundRule) ? null : outBoundRule.getRevision());
+        }
+
+        private ServiceRule loadRule(ServiceKey serviceKey) {
+            GetServiceRuleRequest request = new GetServiceRuleRequest();
+            request.setService(serviceKey.getService());
+            request.setNamespace(serviceKey.getNamespace());
+            request.setRuleType(EventType.ROUTING);
+
+            ServiceRuleResponse response = consumerAPI.getServiceRule(request);
+            return response.getServiceRule();
+        }
+
+        private static List<Route> filter(List<Route> rules, ServiceKey serviceKey) {
+            List<Route> newRules = new ArrayList<>();
+            for (Route route : rules) {
+                for (Source source : route.getSourcesList()) {
+                    String namespace = source.getNamespace().getValue();
+                    String service = source.getService().getValue();
+                    boolean matched = Objects.equals(namespace, MATCH_ALL) && Objects.equals(service, MATCH_ALL);
+                    matched = matched || (Objects.equals(namespace, MATCH_ALL)
+                            && Objects.equals(service, serviceKey.getService()));
+                    matched = matched || (Objects.equals(namespace, serviceKey.getNamespace())
+                            && Objects.equals(service, serviceKey.getService()));
+                    if (matched) {
+                        newRules.add(route);
+                        break;
+                    }
+                }
+            }
+            return newRules;
+        }
+    }
+
+    /**
+     * 编译后的路由规则, 包含过滤后的 {@link Route} 以及预先提取好的路由标签 key
+     */
+    public static final class RoutePlan {
+
+        private final long version;
+
+        private final List<Route> routes;
+
+        private final String inboundRevision;
+
+        private final String outboundRevision;
+
+        private final boolean requirePath;
+
+        private final boolean requireCallerIp;
+
+        private final String[] headerNames;
+
+        private final Key<String>[] headerKeys;
+
+        @SuppressWarnings("unchecked")
+        RoutePlan(long version, List<Route> routes, String inboundRevision, String outboundRevision) {
+            this.version = version;
+            this.routes = Collections.unmodifiableList(routes);
+            this.inboundRevision = inboundRevision;
+            this.outboundRevision = outboundRevision;
+
+            Set<String> labelKeys = new LinkedHashSet<>();
+            routes.forEach(route -> {
+                for (Source source : route.getSourcesList()) {
+                    labelKeys.addAll(source.getMetadataMap().keySet());
+                }
+            });
+
+            boolean path = false;
+            boolean callerIp = false;
+            List<String> headers = new ArrayList<>();
+            for (String labelKey : labelKeys) {
+                if (StringUtils.equals(labelKey, RouteArgument.LABEL_KEY_PATH)) {
+                    path = true;
+                } else if (labelKey.startsWith(RouteArgument.LABEL_KEY_HEADER)) {
+                    headers.add(labelKey.substring(RouteArgument.LABEL_KEY_HEADER.length() + 1));
+                } else if (labelKey.startsWith(RouteArgument.LABEL_KEY_CALLER_IP)) {
+                    callerIp = true;
+                }
+            }
+            this.requirePath = path;
+            this.requireCallerIp = callerIp;
+            this.headerNames = headers.toArray(new String[0]);
+            this.headerKeys = new Key[headerNames.length];
+            for (int i = 0; i < headerNames.length; i++) {
+                headerKeys[i] = Key.of(headerNames[i], Metadata.ASCII_STRING_MARSHALLER);
+            }
+        }
+
+        public List<Route> getRoutes() {
+            return routes;
+        }
+
+        public String getInboundRevision() {
+            return inboundRevision;
+        }
+
+        public String getOutboundRevision() {
+            return outboundRevision;
+        }
+
+        public boolean isRequirePath() {
+            return requirePath;
+        }
+
+        public boolean isRequireCallerIp() {
+            return requireCallerIp;
+        }
+
+        public String[] getHeaderNames() {
+            return headerNames;
+        }
+
+        public Key<String>[] getHeaderKeys() {
+            return headerKeys;
+        }
+    }
+
+    private static final class PlanKey {
+
+        private final ServiceKey target;
+
+        private final ServiceKey source;
+
+        private PlanKey(ServiceKey target, ServiceKey source) {
+            this.target = target;
+            this.source = source;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PlanKey)) {
+                return false;
+            }
+            PlanKey planKey = (PlanKey) o;
+            return Objects.equals(target, planKey.target) && Objects.equals(source, planKey.source);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(target, source);
+        }
+    }
+}
@@ -0,0 +1,55 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import com.tencent.polaris.api.pojo.ServiceInstances;
+
+/**
+ * 一次路由计算的结果, 同时持有 SDK 返回的 {@link ServiceInstances}、对应的 {@link PolarisSubChannel}
+ * 以及 picker 按候选实例集合复用的本地负载均衡器
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class RouteResult {
+
+    private final ServiceInstances instances;
+
+    private final PolarisSubChannel[] channels;
+
+    private final LocalLoadBalancer balancer;
+
+    RouteResult(ServiceInstances instances, PolarisSubChannel[] channels, LocalLoadBalancer balancer) {
+        this.instances = instances;
+        this.channels = channels;
+        this.balancer = balancer;
+    }
+
+    ServiceInstances getInstances() {
+        return instances;
+    }
+
+    PolarisSubChannel[] getChannels() {
+        return channels;
+    }
+
+    /**
+     * @return 本地负载均衡器, 本地没有实现的策略返回 null
+     */
+    LocalLoadBalancer getBalancer() {
+        return balancer;
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import com.tencent.polaris.api.pojo.RouteArgument;
+import com.tencent.polaris.grpc.loadbalance.RoutePlanCache.RoutePlan;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * 路由结果缓存, 以 (method, 路由标签) 作为 key 缓存 {@link com.tencent.polaris.router.api.core.RouterAPI#processRouters}
+ * 的结果。缓存归属于某一个 {@link PolarisPicker}, 实例快照变化时随 picker 一起丢弃; 路由规则变化时整代缓存原子替换。
+ * <p>
+ * 由于熔断、隔离等实例状态不会触发 picker 重建, 缓存项额外有一个较短的过期时间, 避免长时间使用过期的路由结果
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class RouteResultCache {
+
+    static final int DEFAULT_MAX_SIZE = 1024;
+
+    static final long DEFAULT_EXPIRE_MILLS = 1000;
+
+    private final int maxSize;
+
+    private final long expireNanos;
+
+    private final LoadBalancerStats stats;
+
+    private final AtomicReference<Generation> generation = new AtomicReference<>(new Generation(null));
+
+    RouteResultCache(int maxSize, long expireMills, LoadBalancerStats stats) {
+        this.maxSize = maxSize;
+        this.expireNanos = TimeUnit.MILLISECONDS.toNanos(expireMills);
+        this.stats = stats;
+    }
+
+    /**
+     * 查询缓存的路由结果
+     *
+     * @param plan 当前生效的路由规则
+     * @param key  参见 {@link #key(String, Set)}
+     * @return 缓存的路由结果, 没有命中时返回 null
+     */
+    RouteResult get(RoutePlan plan, RouteKey key) {
+        if (maxSize <= 0) {
+            return null;
+        }
+        Entry entry = current(plan).entries.get(key);
+        if (Objects.isNull(entry) || System.nanoTime() - entry.createTime > expireNanos) {
+            stats.recordRouteCacheMiss();
+            return null;
+        }
+        stats.recordRouteCacheHit();
+        return entry.result;
+    }
+
+    void put(RoutePlan plan, RouteKey key, RouteResult result) {
+        if (maxSize <= 0 || Objects.isNull(result)) {
+            return;
+        }
+        final long now = System.nanoTime();
+        Generation gen = current(plan);
+        if (gen.entries.size() >= maxSize && !gen.entries.containsKey(key)
+                && !gen.evictExpired(now, expireNanos, maxSize)) {
+            stats.recordRouteCacheOverflow();
+            return;
+        }
+        gen.entries.put(key, new Entry(result, now));
+    }
+
+    private Generation current(RoutePlan plan) {
+        for (;;) {
+            Generation gen = generation.get();
+            if (gen.plan == plan) {
+                return gen;
+            }
+            Generation newGen = new Generation(plan);
+            if (generation.compareAndSet(gen, newGen)) {
+                return newGen;
+            }
+        }
+    }
+
+    /**
+     * 构建缓存 key, key 持有路由标签的不可变副本, 命中时逐个比较标签, 与标签的顺序无关
+     *
+     * @param method    调用方法
+     * @param arguments 路由标签
+     * @return {@link RouteKey}
+     */
+    static RouteKey key(String method, Set<RouteArgument> arguments) {
+        Set<List<Object>> labels = new HashSet<>(arguments.size() * 2);
+        for (RouteArgument argument : arguments) {
+            labels.add(Arrays.asList(argument.getType(), argument.getKey(), argument.getValue()));
+        }
+        return new RouteKey(method, Collections.unmodifiableSet(labels));
+    }
+
+    private static final class Generation {
+
+        private final RoutePlan plan;
+
+        private final Map<RouteKey, Entry> entries = new ConcurrentHashMap<>();
+
+        /**
+         * 在此之前不会有缓存项过期, 避免缓存已满时每次 put 都遍历全部缓存项
+         */
+        private volatile long nextEvictNanos = System.nanoTime();
+
+        private Generation(RoutePlan plan) {
+            this.plan = plan;
+        }
+
+        /**
+         * 缓存已满时清理过期的缓存项, 为新的 key 腾出空间
+         *
+         * @return 清理后是否还有空间
+         */
+        private boolean evictExpired(long now, long expireNanos, int maxSize) {
+            if (now - nextEvictNanos < 0) {
+                return false;
+            }
+            long oldest = now;
+            for (Iterator<Entry> iterator = entries.values().iterator(); iterator.hasNext(); ) {
+                Entry entry = iterator.next();
+                if (now - entry.createTime > expireNanos) {
+                    iterator.remove();
+                } else if (entry.createTime - oldest < 0) {
+                    oldest = entry.createTime;
+                }
+            }
+            nextEvictNanos = oldest + expireNanos + 1;
+            return entries.size() < maxSize;
+        }
+    }
+
+    private static final class Entry {
+
+        private final RouteResult result;
+
+        private final long createTime;
+
+        private Entry(RouteResult result, long createTime) {
+            this.result = result;
+            this.createTime = createTime;
+        }
+    }
+
+    static final class RouteKey {
+
+        private final String method;
+
+        private final Set<List<Object>> labels;
+
+        private final int hash;
+
+        private RouteKey(String method, Set<List<Object>> labels) {
+            this.method = method;
+            this.labels = labels;
+            this.hash = 31 * Objects.hashCode(method) + labels.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RouteKey)) {
+                return false;
+            }
+            RouteKey routeKey = (RouteKey) o;
+            return hash == routeKey.hash && Objects.equals(method, routeKey.method)
+                    && labels.equals(routeKey.labels);
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+    }
+}
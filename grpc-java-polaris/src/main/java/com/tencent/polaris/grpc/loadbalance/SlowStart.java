@@ -0,0 +1,55 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 新实例的预热: 实例首次连接成功后的 window 时间内, 有效权重按照 (t / window) ^ (1 / aggression) 从 minWeightPercent 逐渐增长到配置的权重。
+ * aggression 为 1 时线性增长, 越大前期增长越快
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class SlowStart {
+
+    static final double DEFAULT_AGGRESSION = 1.0;
+
+    static final double DEFAULT_MIN_WEIGHT_PERCENT = 0.1;
+
+    private SlowStart() {
+    }
+
+    /**
+     * 计算实例当前的有效权重
+     *
+     * @param config     {@link LoadBalanceConfig}
+     * @param weight     实例配置的权重
+     * @param readySince 实例首次连接成功的时间, 0 表示还没有连接成功
+     * @param now        当前时间
+     * @return 有效权重, 预热结束后返回 -1
+     */
+    static int effectiveWeight(LoadBalanceConfig config, int weight, long readySince, long now) {
+        final long window = TimeUnit.MILLISECONDS.toNanos(config.getSlowStartWindowMills());
+        if (window <= 0 || readySince == 0 || now - readySince >= window || weight <= 0) {
+            return -1;
+        }
+        double progress = (double) (now - readySince) / window;
+        double factor = Math.pow(progress, 1.0 / Math.max(config.getSlowStartAggression(), 0.01));
+        factor = Math.max(factor, config.getSlowStartMinWeightPercent());
+        return (int) Math.max(1, Math.round(weight * factor));
+    }
+}
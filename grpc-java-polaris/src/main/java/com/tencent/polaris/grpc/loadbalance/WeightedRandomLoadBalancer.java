@@ -0,0 +1,87 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import io.grpc.LoadBalancer.PickSubchannelArgs;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * 基于 Vose alias method 的加权随机, 构建 O(n), 每次选择只需要两次随机数
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class WeightedRandomLoadBalancer extends LocalLoadBalancer {
+
+    private final double[] probability;
+
+    private final int[] alias;
+
+    WeightedRandomLoadBalancer(PolarisSubChannel[] channels) {
+        super(channels);
+        final int size = channels.length;
+        final int[] weights = weights(channels);
+        long total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+
+        this.probability = new double[size];
+        this.alias = new int[size];
+
+        double[] scaled = new double[size];
+        int[] small = new int[size];
+        int[] large = new int[size];
+        int smallSize = 0;
+        int largeSize = 0;
+        for (int i = 0; i < size; i++) {
+            scaled[i] = (double) weights[i] * size / total;
+            if (scaled[i] < 1.0) {
+                small[smallSize++] = i;
+            } else {
+                large[largeSize++] = i;
+            }
+        }
+
+        while (smallSize > 0 && largeSize > 0) {
+            int less = small[--smallSize];
+            int more = large[--largeSize];
+            probability[less] = scaled[less];
+            alias[less] = more;
+            scaled[more] = scaled[more] + scaled[less] - 1.0;
+            if (scaled[more] < 1.0) {
+                small[smallSize++] = more;
+            } else {
+                large[largeSize++] = more;
+            }
+        }
+        while (largeSize > 0) {
+            probability[large[--largeSize]] = 1.0;
+        }
+        // 浮点误差导致剩余的 small 项, 视为概率 1
+        while (smallSize > 0) {
+            probability[small[--smallSize]] = 1.0;
+        }
+    }
+
+    @Override
+    PolarisSubChannel choose(PickSubchannelArgs args) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int index = random.nextInt(channels.length);
+        return random.nextDouble() < probability[index] ? channels[index] : channels[alias[index]];
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import io.grpc.LoadBalancer.PickSubchannelArgs;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 平滑加权轮询。构建时按照 earliest-deadline-first 预先计算一个完整周期的调度序列, 高权重实例在周期内均匀分散,
+ * pick 时只需要对序号做一次原子自增, 不需要像 nginx 的 smooth WRR 那样在锁内更新所有实例的当前权重
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class WeightedRoundRobinLoadBalancer extends LocalLoadBalancer {
+
+    /**
+     * 调度序列的最大长度, 超过时按比例缩小权重
+     */
+    static final int MAX_SCHEDULE_SIZE = 1 << 16;
+
+    private final int[] schedule;
+
+    private final AtomicInteger sequence;
+
+    WeightedRoundRobinLoadBalancer(PolarisSubChannel[] channels) {
+        super(channels);
+        final int[] weights = normalize(weights(channels));
+        int total = 0;
+        for (int weight : weights) {
+            total += weight;
+        }
+
+        this.schedule = new int[total];
+        PriorityQueue<Slot> queue = new PriorityQueue<>(Math.max(1, channels.length));
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] > 0) {
+                queue.add(new Slot(i, weights[i]));
+            }
+        }
+        for (int i = 0; i < total; i++) {
+            Slot slot = queue.poll();
+            schedule[i] = slot.index;
+            slot.deadline += slot.step;
+            queue.add(slot);
+        }
+        // 每个 picker 从随机位置开始, 避免所有客户端同时从同一个实例开始轮询
+        this.sequence = new AtomicInteger(ThreadLocalRandom.current().nextInt(total));
+    }
+
+    @Override
+    PolarisSubChannel choose(PickSubchannelArgs args) {
+        int next = sequence.getAndIncrement() & Integer.MAX_VALUE;
+        return channels[schedule[next % schedule.length]];
+    }
+
+    /**
+     * 除以最大公约数, 并把调度序列长度限制在 {@link #MAX_SCHEDULE_SIZE} 以内
+     */
+    private static int[] normalize(int[] weights) {
+        int gcd = 0;
+        long total = 0;
+        for (int weight : weights) {
+            gcd = gcd(gcd, weight);
+            total += weight;
+        }
+        total /= gcd;
+        double scale = total > MAX_SCHEDULE_SIZE ? (double) MAX_SCHEDULE_SIZE / total : 1.0;
+        for (int i = 0; i < weights.length; i++) {
+            if (weights[i] == 0) {
+                continue;
+            }
+            weights[i] = Math.max(1, (int) (weights[i] / gcd * scale));
+        }
+        return weights;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static final class Slot implements Comparable<Slot> {
+
+        private final int index;
+
+        private final int weight;
+
+        private final double step;
+
+        private double deadline;
+
+        private Slot(int index, int weight) {
+            this.index = index;
+            this.weight = weight;
+            this.step = 1.0 / weight;
+            this.deadline = step / 2;
+        }
+
+        @Override
+        public int compareTo(Slot o) {
+            int ret = Double.compare(deadline, o.deadline);
+            if (ret != 0) {
+                return ret;
+            }
+            ret = Integer.compare(o.weight, weight);
+            return ret != 0 ? ret : Integer.compare(index, o.index);
+        }
+    }
+}
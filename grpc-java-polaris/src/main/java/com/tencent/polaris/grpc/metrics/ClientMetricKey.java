@@ -0,0 +1,92 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.metrics;
+
+import java.util.Objects;
+
+/**
+ * 客户端调用统计的维度: 被调服务, 方法以及实例
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public final class ClientMetricKey {
+
+    private final String namespace;
+
+    private final String service;
+
+    private final String method;
+
+    private final String instance;
+
+    private final int hashCode;
+
+    public ClientMetricKey(String namespace, String service, String method, String instance) {
+        this.namespace = namespace;
+        this.service = service;
+        this.method = method;
+        this.instance = instance;
+        this.hashCode = Objects.hash(namespace, service, method, instance);
+    }
+
+    public String getNamespace() {
+        return namespace;
+    }
+
+    public String getService() {
+        return service;
+    }
+
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return 实例地址 host:port
+     */
+    public String getInstance() {
+        return instance;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ClientMetricKey)) {
+            return false;
+        }
+        ClientMetricKey that = (ClientMetricKey) o;
+        return Objects.equals(namespace, that.namespace) && Objects.equals(service, that.service)
+                && Objects.equals(method, that.method) && Objects.equals(instance, that.instance);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "ClientMetricKey{" +
+                "namespace='" + namespace + '\'' +
+                ", service='" + service + '\'' +
+                ", method='" + method + '\'' +
+                ", instance='" + instance + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.metrics;
+
+import com.tencent.polaris.grpc.util.ClientCallInfo;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 客户端调用耗时统计, 按照 (命名空间, 服务, 方法, 实例) 维度记录, 单位微秒。
+ * 由 {@link com.tencent.polaris.grpc.loadbalance.PolarisClientStreamTracer} 在调用结束时写入。
+ * <p>
+ * 同一个实例可能被多个 channel 的负载均衡器同时使用, 实例的统计按照引用计数管理, 最后一个负载均衡器释放实例时才清理
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public final class ClientMetrics {
+
+    /**
+     * 超出上限的实例统一归入该维度
+     */
+    public static final String OTHER = "other";
+
+    /**
+     * 统计维度的上限, 超出后新的实例只按 (命名空间, 服务, 方法) 统计
+     */
+    static final int MAX_SIZE = 4096;
+
+    private static final Map<ClientMetricKey, Histogram> LATENCIES = new ConcurrentHashMap<>();
+
+    /**
+     * 实例 -> 使用该实例的负载均衡器数量, key 中的 method 为 null
+     */
+    private static final Map<ClientMetricKey, Integer> OWNERS = new ConcurrentHashMap<>();
+
+    private ClientMetrics() {
+    }
+
+    /**
+     * 获取调用对应的耗时直方图, 调用方应当缓存返回值, 避免每次调用都构造 key;
+     * 返回的直方图被 {@link Histogram#isRetired() 清理} 之后需要重新获取
+     *
+     * @param info {@link ClientCallInfo}
+     * @return {@link Histogram}
+     */
+    public static Histogram latency(ClientCallInfo info) {
+        String namespace = info.getTargetNamespace();
+        String service = info.getTargetService();
+        String instance = instanceKey(info.getInstance().getHost(), info.getInstance().getPort());
+        ClientMetricKey key = new ClientMetricKey(namespace, service, info.getMethod(), instance);
+        Histogram histogram = LATENCIES.get(key);
+        if (histogram != null) {
+            return histogram;
+        }
+        final ClientMetricKey target = LATENCIES.size() >= MAX_SIZE
+                ? new ClientMetricKey(namespace, service, info.getMethod(), OTHER) : key;
+        Histogram[] created = new Histogram[1];
+        // 在 compute 中登记, 保证与并发的 releaseInstance 互斥
+        OWNERS.computeIfPresent(new ClientMetricKey(namespace, service, null, instance), (k, count) -> {
+            created[0] = LATENCIES.computeIfAbsent(target, t -> new Histogram());
+            return count;
+        });
+        if (created[0] == null) {
+            // 实例已经被所有负载均衡器释放, 不再登记, 避免清理之后残留的调用重新创建统计
+            created[0] = new Histogram();
+            created[0].retire();
+        }
+        return created[0];
+    }
+
+    /**
+     * 负载均衡器开始使用实例时调用, 与 {@link #releaseInstance} 成对出现
+     *
+     * @param namespace 被调服务的命名空间
+     * @param service   被调服务名
+     * @param host      实例地址
+     * @param port      实例端口
+     */
+    public static void acquireInstance(String namespace, String service, String host, int port) {
+        OWNERS.merge(new ClientMetricKey(namespace, service, null, instanceKey(host, port)), 1, Integer::sum);
+    }
+
+    /**
+     * 实例下线或者负载均衡器关闭时调用, 最后一个使用者释放时清理该实例所有方法的耗时统计
+     *
+     * @param namespace 被调服务的命名空间
+     * @param service   被调服务名
+     * @param host      实例地址
+     * @param port      实例端口
+     */
+    public static void releaseInstance(String namespace, String service, String host, int port) {
+        String instance = instanceKey(host, port);
+        ClientMetricKey owner = new ClientMetricKey(namespace, service, null, instance);
+        OWNERS.computeIfPresent(owner, (k, count) -> {
+            if (count > 1) {
+                return count - 1;
+            }
+            // 在 compute 中清理, 保证与并发的 latency 互斥, 清理之后不会再登记该实例的统计
+            LATENCIES.entrySet().removeIf(entry -> {
+                ClientMetricKey key = entry.getKey();
+                if (Objects.equals(key.getInstance(), instance) && Objects.equals(key.getService(), service)
+                        && Objects.equals(key.getNamespace(), namespace)) {
+                    entry.getValue().retire();
+                    return true;
+                }
+                return false;
+            });
+            return null;
+        });
+    }
+
+    private static String instanceKey(String host, int port) {
+        return host + ":" + port;
+    }
+
+    /**
+     * @return 所有维度的耗时统计快照
+     */
+    public static Map<ClientMetricKey, HistogramSnapshot> snapshot() {
+        Map<ClientMetricKey, HistogramSnapshot> snapshots = new HashMap<>(LATENCIES.size() * 2);
+        LATENCIES.forEach((key, histogram) -> snapshots.put(key, histogram.snapshot()));
+        return Collections.unmodifiableMap(snapshots);
+    }
+
+    /**
+     * 获取所有维度的耗时统计快照并清空, 开始新的统计周期
+     *
+     * @return 清空前的统计快照
+     */
+    public static Map<ClientMetricKey, HistogramSnapshot> snapshotAndReset() {
+        Map<ClientMetricKey, HistogramSnapshot> snapshots = new HashMap<>(LATENCIES.size() * 2);
+        LATENCIES.forEach((key, histogram) -> snapshots.put(key, histogram.snapshotAndReset()));
+        return Collections.unmodifiableMap(snapshots);
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 对数线性分桶的直方图, 与 HdrHistogram 类似: 每个 2 的幂区间再线性划分为 16 个子桶, 相对误差约 3%。
+ * 一个计数数组约 5KB, 写入先在基础数组上 CAS, 第一次出现竞争之后才按照线程分段到多个计数数组上,
+ * 没有竞争的直方图只占用一个计数数组; 记录时不会加锁, 分段在第一次被使用时才分配
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public final class Histogram {
+
+    private static final int SUB_BUCKET_BITS = 5;
+
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+
+    private static final int SUB_BUCKET_HALF = SUB_BUCKET_COUNT >> 1;
+
+    /**
+     * 可以记录的最大值为 2^MAX_EXPONENT, 超过的值记录到最后一个桶
+     */
+    private static final int MAX_EXPONENT = 40;
+
+    static final int BUCKET_COUNT = index(Long.MAX_VALUE) + 1;
+
+    private static final int STRIPES = Math.min(8,
+            Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors() - 1)) << 1);
+
+    private final AtomicLongArray base = new AtomicLongArray(BUCKET_COUNT);
+
+    private final AtomicReferenceArray<AtomicLongArray> stripes = new AtomicReferenceArray<>(STRIPES);
+
+    /**
+     * 基础数组上出现过写入竞争, 之后的写入都分段进行
+     */
+    private volatile boolean contended;
+
+    /**
+     * 已经从统计中移除, 持有该直方图的调用方需要重新获取
+     */
+    private volatile boolean retired;
+
+    private final LongAdder count = new LongAdder();
+
+    private final LongAdder sum = new LongAdder();
+
+    private final LongAccumulator max = new LongAccumulator(Math::max, 0);
+
+    /**
+     * 记录一个值, 负数按照 0 处理
+     *
+     * @param value 值
+     */
+    public void record(long value) {
+        final long v = Math.max(0, value);
+        final int index = index(v);
+        if (contended) {
+            stripe().incrementAndGet(index);
+        } else {
+            long current = base.get(index);
+            if (!base.compareAndSet(index, current, current + 1)) {
+                contended = true;
+                stripe().incrementAndGet(index);
+            }
+        }
+        count.increment();
+        sum.add(v);
+        max.accumulate(v);
+    }
+
+    /**
+     * @return 当前的统计快照
+     */
+    public HistogramSnapshot snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * 获取统计快照并清空, 用于按照固定周期输出统计
+     *
+     * @return 清空前的统计快照
+     */
+    public HistogramSnapshot snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    private HistogramSnapshot snapshot(boolean reset) {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int j = 0; j < BUCKET_COUNT; j++) {
+            counts[j] = reset ? base.getAndSet(j, 0) : base.get(j);
+        }
+        for (int i = 0; i < STRIPES; i++) {
+            AtomicLongArray stripe = stripes.get(i);
+            if (stripe == null) {
+                continue;
+            }
+            for (int j = 0; j < BUCKET_COUNT; j++) {
+                counts[j] += reset ? stripe.getAndSet(j, 0) : stripe.get(j);
+            }
+        }
+        if (reset) {
+            return new HistogramSnapshot(counts, count.sumThenReset(), sum.sumThenReset(), max.getThenReset());
+        }
+        return new HistogramSnapshot(counts, count.sum(), sum.sum(), max.get());
+    }
+
+    /**
+     * @return 是否已经从统计中移除, 移除后写入的值不会再被输出
+     */
+    public boolean isRetired() {
+        return retired;
+    }
+
+    void retire() {
+        retired = true;
+    }
+
+    private AtomicLongArray stripe() {
+        int index = (int) Thread.currentThread().getId() & (STRIPES - 1);
+        AtomicLongArray stripe = stripes.get(index);
+        if (stripe == null) {
+            stripes.compareAndSet(index, null, new AtomicLongArray(BUCKET_COUNT));
+            stripe = stripes.get(index);
+        }
+        return stripe;
+    }
+
+    static int index(long value) {
+        if (value < SUB_BUCKET_COUNT) {
+            return (int) value;
+        }
+        int exponent = Math.min(63 - Long.numberOfLeadingZeros(value), MAX_EXPONENT);
+        long mantissa = exponent == MAX_EXPONENT && value >= (1L << (MAX_EXPONENT + 1))
+                ? SUB_BUCKET_COUNT - 1 : value >>> (exponent - SUB_BUCKET_BITS + 1);
+        return SUB_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS) * SUB_BUCKET_HALF + (int) (mantissa - SUB_BUCKET_HALF);
+    }
+
+    /**
+     * @return 桶的下界
+     */
+    static long lowerBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index;
+        }
+        int exponent = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + SUB_BUCKET_BITS;
+        long mantissa = (index - SUB_BUCKET_COUNT) % SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+        return mantissa << (exponent - SUB_BUCKET_BITS + 1);
+    }
+
+    /**
+     * @return 桶的上界 (不包含)
+     */
+    static long upperBound(int index) {
+        if (index < SUB_BUCKET_COUNT) {
+            return index + 1;
+        }
+        int exponent = (index - SUB_BUCKET_COUNT) / SUB_BUCKET_HALF + SUB_BUCKET_BITS;
+        return lowerBound(index) + (1L << (exponent - SUB_BUCKET_BITS + 1));
+    }
+}
@@ -0,0 +1,127 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.metrics;
+
+/**
+ * 某一个 (方法, 主调服务) 维度下的服务端调用统计, 耗时单位为微秒, 消息大小单位为字节
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public final class ServerCallMetrics {
+
+    private final Histogram queueing = new Histogram();
+
+    private final Histogram handling = new Histogram();
+
+    private final Histogram inboundWireSize = new Histogram();
+
+    private final Histogram outboundWireSize = new Histogram();
+
+    ServerCallMetrics() {
+    }
+
+    /**
+     * 记录从 stream 创建到业务线程开始处理调用的耗时, 主要是在线程池中的排队时间
+     *
+     * @param micros 耗时
+     */
+    public void recordQueueing(long micros) {
+        queueing.record(micros);
+    }
+
+    /**
+     * 记录一次调用结束
+     *
+     * @param handlingMicros 从开始处理到 stream 关闭的耗时
+     * @param inboundBytes   请求的网络传输字节数
+     * @param outboundBytes  响应的网络传输字节数
+     */
+    public void recordCall(long handlingMicros, long inboundBytes, long outboundBytes) {
+        handling.record(handlingMicros);
+        inboundWireSize.record(inboundBytes);
+        outboundWireSize.record(outboundBytes);
+    }
+
+    Snapshot snapshot(boolean reset) {
+        if (reset) {
+            return new Snapshot(queueing.snapshotAndReset(), handling.snapshotAndReset(),
+                    inboundWireSize.snapshotAndReset(), outboundWireSize.snapshotAndReset());
+        }
+        return new Snapshot(queueing.snapshot(), handling.snapshot(), inboundWireSize.snapshot(),
+                outboundWireSize.snapshot());
+    }
+
+    /**
+     * {@link ServerCallMetrics} 某一时刻的统计快照
+     */
+    public static final class Snapshot {
+
+        private final HistogramSnapshot queueing;
+
+        private final HistogramSnapshot handling;
+
+        private final HistogramSnapshot inboundWireSize;
+
+        private final HistogramSnapshot outboundWireSize;
+
+        private Snapshot(HistogramSnapshot queueing, HistogramSnapshot handling, HistogramSnapshot inboundWireSize,
+                HistogramSnapshot outboundWireSize) {
+            this.queueing = queueing;
+            this.handling = handling;
+            this.inboundWireSize = inboundWireSize;
+            this.outboundWireSize = outboundWireSize;
+        }
+
+        /**
+         * @return 排队耗时, 单位微秒
+         */
+        public HistogramSnapshot getQueueing() {
+            return queueing;
+        }
+
+        /**
+         * @return 处理耗时, 单位微秒
+         */
+        public HistogramSnapshot getHandling() {
+            return handling;
+        }
+
+        /**
+         * @return 每次调用请求的网络传输字节数
+         */
+        public HistogramSnapshot getInboundWireSize() {
+            return inboundWireSize;
+        }
+
+        /**
+         * @return 每次调用响应的网络传输字节数
+         */
+        public HistogramSnapshot getOutboundWireSize() {
+            return outboundWireSize;
+        }
+
+        @Override
+        public String toString() {
+            return "Snapshot{" +
+                    "queueing=" + queueing +
+                    ", handling=" + handling +
+                    ", inboundWireSize=" + inboundWireSize +
+                    ", outboundWireSize=" + outboundWireSize +
+                    '}';
+        }
+    }
+}
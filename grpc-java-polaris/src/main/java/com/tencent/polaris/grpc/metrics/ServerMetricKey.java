@@ -0,0 +1,90 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.metrics;
+
+import java.util.Objects;
+
+/**
+ * 服务端调用统计的维度: 方法以及主调服务
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public final class ServerMetricKey {
+
+    private final String method;
+
+    private final String callerNamespace;
+
+    private final String callerService;
+
+    private final int hashCode;
+
+    public ServerMetricKey(String method, String callerNamespace, String callerService) {
+        this.method = method;
+        this.callerNamespace = callerNamespace;
+        this.callerService = callerService;
+        this.hashCode = Objects.hash(method, callerNamespace, callerService);
+    }
+
+    /**
+     * @return 完整的方法名, 例如 polaris.Hello/SayHello
+     */
+    public String getMethod() {
+        return method;
+    }
+
+    /**
+     * @return 主调服务的命名空间, 主调方没有携带时为 null
+     */
+    public String getCallerNamespace() {
+        return callerNamespace;
+    }
+
+    /**
+     * @return 主调服务名, 主调方没有携带时为 null
+     */
+    public String getCallerService() {
+        return callerService;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ServerMetricKey)) {
+            return false;
+        }
+        ServerMetricKey that = (ServerMetricKey) o;
+        return Objects.equals(method, that.method) && Objects.equals(callerNamespace, that.callerNamespace)
+                && Objects.equals(callerService, that.callerService);
+    }
+
+    @Override
+    public int hashCode() {
+        return hashCode;
+    }
+
+    @Override
+    public String toString() {
+        return "ServerMetricKey{" +
+                "method='" + method + '\'' +
+                ", callerNamespace='" + callerNamespace + '\'' +
+                ", callerService='" + callerService + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.metrics;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 服务端调用统计, 按照 (方法, 主调服务) 维度记录。
+ * 由 {@link com.tencent.polaris.grpc.server.PolarisServerStreamTracerFactory} 写入
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public final class ServerMetrics {
+
+    /**
+     * 未注册的方法以及超出上限的主调服务统一归入该维度
+     */
+    public static final String OTHER = "other";
+
+    /**
+     * 统计维度的上限, 方法名与主调服务名都来自请求, 超出后新的主调服务只按方法统计
+     */
+    static final int MAX_SIZE = 4096;
+
+    private static final Map<ServerMetricKey, ServerCallMetrics> CALLS = new ConcurrentHashMap<>();
+
+    private ServerMetrics() {
+    }
+
+    /**
+     * 获取 (方法, 主调服务) 对应的统计, 统计维度达到上限后新的主调服务归入 (方法, {@link #OTHER})
+     *
+     * @param method          完整的方法名, 调用方需要保证取值有限, 未注册的方法传入 {@link #OTHER}
+     * @param callerNamespace 主调服务的命名空间, 可以为 null
+     * @param callerService   主调服务名, 可以为 null
+     * @return {@link ServerCallMetrics}
+     */
+    public static ServerCallMetrics of(String method, String callerNamespace, String callerService) {
+        ServerMetricKey key = new ServerMetricKey(method, callerNamespace, callerService);
+        ServerCallMetrics metrics = CALLS.get(key);
+        if (metrics != null) {
+            return metrics;
+        }
+        if (CALLS.size() >= MAX_SIZE) {
+            key = new ServerMetricKey(method, OTHER, OTHER);
+        }
+        return CALLS.computeIfAbsent(key, k -> new ServerCallMetrics());
+    }
+
+    /**
+     * @return 所有维度的统计快照
+     */
+    public static Map<ServerMetricKey, ServerCallMetrics.Snapshot> snapshot() {
+        return snapshot(false);
+    }
+
+    /**
+     * 获取所有维度的统计快照并清空, 开始新的统计周期
+     *
+     * @return 清空前的统计快照
+     */
+    public static Map<ServerMetricKey, ServerCallMetrics.Snapshot> snapshotAndReset() {
+        return snapshot(true);
+    }
+
+    private static Map<ServerMetricKey, ServerCallMetrics.Snapshot> snapshot(boolean reset) {
+        Map<ServerMetricKey, ServerCallMetrics.Snapshot> snapshots = new HashMap<>(CALLS.size() * 2);
+        CALLS.forEach((key, metrics) -> snapshots.put(key, metrics.snapshot(reset)));
+        return Collections.unmodifiableMap(snapshots);
+    }
+}
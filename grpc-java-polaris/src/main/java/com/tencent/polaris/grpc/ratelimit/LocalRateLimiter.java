@@ -0,0 +1,444 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.ratelimit;
+
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.grpc.util.Common;
+import com.tencent.polaris.ratelimit.api.rpc.QuotaResponse;
+import com.tencent.polaris.ratelimit.api.rpc.QuotaResult;
+import com.tencent.polaris.specification.api.v1.model.ModelProto.MatchString;
+import com.tencent.polaris.specification.api.v1.traffic.manage.RateLimitProto.Amount;
+import com.tencent.polaris.specification.api.v1.traffic.manage.RateLimitProto.MatchArgument;
+import com.tencent.polaris.specification.api.v1.traffic.manage.RateLimitProto.Rule;
+import io.grpc.Metadata;
+import io.grpc.Metadata.Key;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import static com.tencent.polaris.api.utils.RuleUtils.MATCH_ALL;
+
+/**
+ * 进程内的单机限流引擎, 某个方法可能命中的规则全部是单机限流 (LOCAL) 并且可以在本地完成匹配时,
+ * 直接在本地判断是否放行, 不再经过 {@link com.tencent.polaris.ratelimit.api.core.LimitAPI#getQuota}。
+ * <p>
+ * 与 SDK 一样按照优先级选择第一条命中的规则, 规则中的每个 {@link Amount} 对应一个 GCRA 令牌桶 (与令牌桶等价,
+ * 只需要一个 long 记录理论到达时间), 通过 CAS 更新, 判断过程中不加锁也不分配对象。
+ * 令牌桶按照 (规则, 标签值) 划分, 标签值的数量超过上限时交给 SDK 处理
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class LocalRateLimiter {
+
+    /**
+     * 单条规则下按照标签值划分的令牌桶数量上限
+     */
+    static final int MAX_BUCKETS_PER_RULE = 4096;
+
+    /**
+     * 令牌桶数量达到上限时清理空闲令牌桶的最小间隔
+     */
+    private static final long EVICT_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    static final QuotaResponse LIMITED_RESPONSE = new QuotaResponse(
+            new QuotaResult(QuotaResult.Code.QuotaResultLimited, 0, "rate-limit exceeded (local)"));
+
+    private static final String ACTION_REJECT = "REJECT";
+
+    /**
+     * 请求没有携带标签时使用的 key, 与任何标签值都不相等
+     */
+    private static final Object NO_VALUE = new Object();
+
+    enum Result {
+        /**
+         * 放行
+         */
+        PASS,
+        /**
+         * 被限流
+         */
+        LIMITED,
+        /**
+         * 本地无法判断, 需要交给 SDK
+         */
+        FALLBACK
+    }
+
+    private final LocalRule[] rules;
+
+    private final boolean requireCallerIp;
+
+    private LocalRateLimiter(LocalRule[] rules) {
+        this.rules = rules;
+        boolean callerIp = false;
+        for (LocalRule rule : rules) {
+            for (ArgumentMatcher matcher : rule.matchers) {
+                callerIp |= matcher.type == MatchArgument.Type.CALLER_IP;
+            }
+        }
+        this.requireCallerIp = callerIp;
+    }
+
+    /**
+     * 根据某个方法可能命中的规则构建本地限流引擎
+     *
+     * @param rules 可能命中该方法的规则
+     * @return {@link LocalRateLimiter}, 存在需要分布式配额或者本地无法匹配的规则时返回 null
+     */
+    static LocalRateLimiter compile(List<Rule> rules) {
+        List<Rule> sorted = new ArrayList<>(rules);
+        sorted.sort(Comparator.comparingInt(rule -> rule.getPriority().getValue()));
+        LocalRule[] localRules = new LocalRule[sorted.size()];
+        for (int i = 0; i < localRules.length; i++) {
+            localRules[i] = LocalRule.compile(sorted.get(i));
+            if (Objects.isNull(localRules[i])) {
+                return null;
+            }
+        }
+        return new LocalRateLimiter(localRules);
+    }
+
+    /**
+     * @return 是否需要主调 IP 参与匹配
+     */
+    boolean isRequireCallerIp() {
+        return requireCallerIp;
+    }
+
+    /**
+     * 申请一个配额
+     *
+     * @param method   方法, 与 QuotaRequest 中的 method 保持一致
+     * @param headers  请求头
+     * @param callerIp 主调 IP, 不需要时可以为 null
+     * @return {@link Result}
+     */
+    Result acquire(String method, Metadata headers, String callerIp) {
+        for (LocalRule rule : rules) {
+            if (rule.matches(method, headers, callerIp)) {
+                return rule.acquire(method, headers, callerIp, System.nanoTime());
+            }
+        }
+        return Result.PASS;
+    }
+
+    private static final class LocalRule {
+
+        private final ArgumentMatcher[] matchers;
+
+        /**
+         * 每个 {@link Amount} 的发放间隔, 单位纳秒, -1 表示不放行任何请求
+         */
+        private final long[] intervals;
+
+        /**
+         * 每个 {@link Amount} 允许的突发容量, 单位纳秒
+         */
+        private final long[] tolerances;
+
+        /**
+         * 所有请求共享一个令牌桶时不为 null
+         */
+        private final Bucket shared;
+
+        private final Map<Object, Bucket> buckets;
+
+        private final AtomicLong lastEvictNanos = new AtomicLong(System.nanoTime() - EVICT_INTERVAL_NANOS);
+
+        private LocalRule(ArgumentMatcher[] matchers, long[] intervals, long[] tolerances, boolean split) {
+            this.matchers = matchers;
+            this.intervals = intervals;
+            this.tolerances = tolerances;
+            this.shared = split ? null : new Bucket(intervals.length);
+            this.buckets = split ? new ConcurrentHashMap<>() : null;
+        }
+
+        private static LocalRule compile(Rule rule) {
+            if (rule.getType() != Rule.Type.LOCAL || rule.getResource() != Rule.Resource.QPS
+                    || !rule.getLabelsMap().isEmpty()) {
+                return null;
+            }
+            String action = rule.getAction().getValue();
+            if (StringUtils.isNotBlank(action) && !ACTION_REJECT.equalsIgnoreCase(action)) {
+                return null;
+            }
+
+            List<MatchArgument> arguments = rule.getArgumentsList();
+            ArgumentMatcher[] matchers = new ArgumentMatcher[arguments.size()];
+            boolean split = false;
+            boolean regexCombine = rule.getRegexCombine().getValue();
+            for (int i = 0; i < matchers.length; i++) {
+                matchers[i] = ArgumentMatcher.compile(arguments.get(i));
+                if (Objects.isNull(matchers[i])) {
+                    return null;
+                }
+                // 非精确匹配并且没有开启合并时, 每个不同的标签值单独计数
+                split |= !regexCombine && matchers[i].matchType != MatchString.MatchStringType.EXACT;
+            }
+
+            List<Amount> amounts = rule.getAmountsList();
+            long[] intervals = new long[amounts.size()];
+            long[] tolerances = new long[amounts.size()];
+            for (int i = 0; i < intervals.length; i++) {
+                Amount amount = amounts.get(i);
+                long durationNanos = TimeUnit.SECONDS.toNanos(amount.getValidDuration().getSeconds())
+                        + amount.getValidDuration().getNanos();
+                long maxAmount = amount.getMaxAmount().getValue();
+                if (durationNanos <= 0) {
+                    return null;
+                }
+                intervals[i] = maxAmount <= 0 ? -1 : Math.max(1, durationNanos / maxAmount);
+                tolerances[i] = maxAmount <= 0 ? 0 : durationNanos - intervals[i];
+            }
+            return new LocalRule(matchers, intervals, tolerances, split && matchers.length > 0);
+        }
+
+        private boolean matches(String method, Metadata headers, String callerIp) {
+            for (ArgumentMatcher matcher : matchers) {
+                if (!matcher.matches(method, headers, callerIp)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private Result acquire(String method, Metadata headers, String callerIp, long nowNanos) {
+            Bucket bucket = shared;
+            if (Objects.isNull(bucket)) {
+                Object key = bucketKey(method, headers, callerIp);
+                bucket = buckets.get(key);
+                if (Objects.isNull(bucket)) {
+                    if (buckets.size() >= MAX_BUCKETS_PER_RULE && !evictIdle(nowNanos)) {
+                        return Result.FALLBACK;
+                    }
+                    bucket = buckets.computeIfAbsent(key, k -> new Bucket(intervals.length));
+                }
+            }
+            return bucket.acquire(intervals, tolerances, nowNanos) ? Result.PASS : Result.LIMITED;
+        }
+
+        /**
+         * 清理已经恢复满额的令牌桶, 这类令牌桶与新建的令牌桶等价, 多个线程同时触发时只有一个线程执行
+         *
+         * @return 清理后是否有空余位置
+         */
+        private boolean evictIdle(long nowNanos) {
+            long last = lastEvictNanos.get();
+            if (nowNanos - last >= EVICT_INTERVAL_NANOS && lastEvictNanos.compareAndSet(last, nowNanos)) {
+                buckets.entrySet().removeIf(entry -> entry.getValue().isIdle(nowNanos));
+            }
+            return buckets.size() < MAX_BUCKETS_PER_RULE;
+        }
+
+        /**
+         * 只有一个标签时直接使用标签值作为 key, 否则使用所有标签值组成的不可变列表
+         */
+        private Object bucketKey(String method, Metadata headers, String callerIp) {
+            if (matchers.length == 1) {
+                String value = matchers[0].value(method, headers, callerIp);
+                return Objects.isNull(value) ? NO_VALUE : value;
+            }
+            Object[] values = new Object[matchers.length];
+            for (int i = 0; i < matchers.length; i++) {
+                values[i] = matchers[i].value(method, headers, callerIp);
+            }
+            return Arrays.asList(values);
+        }
+    }
+
+    /**
+     * GCRA 令牌桶, 每个 {@link Amount} 记录一个理论到达时间 (TAT), 0 表示还没有申请过
+     */
+    static final class Bucket {
+
+        private static final long UNSET = 0;
+
+        private final AtomicLongArray tats;
+
+        Bucket(int size) {
+            this.tats = new AtomicLongArray(size);
+        }
+
+        /**
+         * 申请一个配额, 所有 {@link Amount} 都有剩余配额时才会成功
+         *
+         * @param intervals  每个 {@link Amount} 的发放间隔, 单位纳秒, -1 表示不放行任何请求
+         * @param tolerances 每个 {@link Amount} 允许的突发容量, 单位纳秒
+         * @param nowNanos   当前时间
+         * @return 是否申请成功
+         */
+        boolean acquire(long[] intervals, long[] tolerances, long nowNanos) {
+            for (int i = 0; i < intervals.length; i++) {
+                if (!acquire(i, intervals[i], tolerances[i], nowNanos)) {
+                    // 归还之前已经申请到的配额
+                    for (int j = 0; j < i; j++) {
+                        tats.getAndAdd(j, -intervals[j]);
+                    }
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * @param nowNanos 当前时间
+         * @return 所有 {@link Amount} 的配额是否都已经恢复满额
+         */
+        boolean isIdle(long nowNanos) {
+            for (int i = 0; i < tats.length(); i++) {
+                long tat = tats.get(i);
+                if (tat != UNSET && tat - nowNanos > 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private boolean acquire(int index, long interval, long tolerance, long nowNanos) {
+            if (interval < 0) {
+                return false;
+            }
+            for (;;) {
+                long tat = tats.get(index);
+                // TAT 已经落后于当前时间说明桶是满的, 从当前时间开始计算
+                long base = tat == UNSET || tat - nowNanos <= 0 ? nowNanos : tat;
+                if (base - nowNanos > tolerance) {
+                    return false;
+                }
+                if (tats.compareAndSet(index, tat, base + interval)) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static final class ArgumentMatcher {
+
+        private final MatchArgument.Type type;
+
+        private final String key;
+
+        private final Key<String> headerKey;
+
+        private final MatchString.MatchStringType matchType;
+
+        private final String expect;
+
+        private final Pattern pattern;
+
+        private final Set<String> values;
+
+        private ArgumentMatcher(MatchArgument.Type type, String key, MatchString.MatchStringType matchType,
+                String expect) {
+            this.type = type;
+            this.key = key;
+            this.headerKey = type == MatchArgument.Type.HEADER ? Key.of(key, Metadata.ASCII_STRING_MARSHALLER) : null;
+            this.matchType = matchType;
+            this.expect = expect;
+            this.pattern = matchType == MatchString.MatchStringType.REGEX ? Pattern.compile(expect) : null;
+            Set<String> values = new HashSet<>();
+            if (matchType == MatchString.MatchStringType.IN || matchType == MatchString.MatchStringType.NOT_IN) {
+                for (String value : expect.split(",")) {
+                    values.add(value.trim());
+                }
+            }
+            this.values = values;
+        }
+
+        private static ArgumentMatcher compile(MatchArgument argument) {
+            MatchString value = argument.getValue();
+            if (Objects.isNull(value) || value.getValueType() != MatchString.ValueType.TEXT) {
+                return null;
+            }
+            switch (argument.getType()) {
+                case HEADER:
+                case CALLER_IP:
+                case CALLER_SERVICE:
+                case METHOD:
+                    break;
+                default:
+                    // CUSTOM、QUERY 等标签在服务端拦截器中无法获取
+                    return null;
+            }
+            switch (value.getType()) {
+                case EXACT:
+                case REGEX:
+                case NOT_EQUALS:
+                case IN:
+                case NOT_IN:
+                    break;
+                default:
+                    return null;
+            }
+            try {
+                return new ArgumentMatcher(argument.getType(), argument.getKey(), value.getType(),
+                        value.getValue().getValue());
+            } catch (PatternSyntaxException e) {
+                return null;
+            }
+        }
+
+        private String value(String method, Metadata headers, String callerIp) {
+            switch (type) {
+                case HEADER:
+                    return headers.get(headerKey);
+                case CALLER_IP:
+                    return callerIp;
+                case CALLER_SERVICE:
+                    return headers.get(Common.CALLER_SERVICE_KEY);
+                default:
+                    return method;
+            }
+        }
+
+        private boolean matches(String method, Metadata headers, String callerIp) {
+            if (type == MatchArgument.Type.CALLER_SERVICE && !StringUtils.equals(key, MATCH_ALL)
+                    && !StringUtils.equals(key, headers.get(Common.CALLER_NAMESPACE_KEY))) {
+                return false;
+            }
+            String actual = value(method, headers, callerIp);
+            if (Objects.isNull(actual)) {
+                return false;
+            }
+            switch (matchType) {
+                case EXACT:
+                    return StringUtils.equals(expect, MATCH_ALL) || StringUtils.equals(expect, actual);
+                case REGEX:
+                    return pattern.matcher(actual).find();
+                case NOT_EQUALS:
+                    return !StringUtils.equals(expect, actual);
+                case IN:
+                    return values.contains(actual);
+                default:
+                    return !values.contains(actual);
+            }
+        }
+    }
+}
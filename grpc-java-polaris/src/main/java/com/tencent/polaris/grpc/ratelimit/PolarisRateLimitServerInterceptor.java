@@ -17,14 +17,12 @@
 package com.tencent.polaris.grpc.ratelimit;
 
 import com.tencent.polaris.api.core.ConsumerAPI;
-import com.tencent.polaris.api.pojo.ServiceEventKey.EventType;
 import com.tencent.polaris.api.pojo.ServiceKey;
-import com.tencent.polaris.api.rpc.GetServiceRuleRequest;
-import com.tencent.polaris.api.rpc.ServiceRuleResponse;
 import com.tencent.polaris.api.utils.StringUtils;
 import com.tencent.polaris.client.api.SDKContext;
 import com.tencent.polaris.factory.api.DiscoveryAPIFactory;
 import com.tencent.polaris.grpc.interceptor.PolarisServerInterceptor;
+import com.tencent.polaris.grpc.ratelimit.RateLimitPlanCache.RateLimitPlan;
 import com.tencent.polaris.grpc.util.Common;
 import com.tencent.polaris.grpc.util.PolarisHelper;
 import com.tencent.polaris.ratelimit.api.core.LimitAPI;
@@ -33,9 +31,6 @@ import com.tencent.polaris.ratelimit.api.rpc.QuotaRequest;
 import com.tencent.polaris.ratelimit.api.rpc.QuotaResponse;
 import com.tencent.polaris.ratelimit.api.rpc.QuotaResultCode;
 import com.tencent.polaris.ratelimit.factory.LimitAPIFactory;
-import com.tencent.polaris.specification.api.v1.traffic.manage.RateLimitProto.MatchArgument;
-import com.tencent.polaris.specification.api.v1.traffic.manage.RateLimitProto.RateLimit;
-import com.tencent.polaris.specification.api.v1.traffic.manage.RateLimitProto.Rule;
 import io.grpc.Grpc;
 import io.grpc.HttpConnectProxiedSocketAddress;
 import io.grpc.Metadata;
@@ -47,13 +42,14 @@ import io.grpc.Status;
 
 import java.net.InetSocketAddress;
 import java.net.SocketAddress;
-import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.function.BiFunction;
 import java.util.function.Consumer;
 
@@ -69,16 +65,33 @@ public class PolarisRateLimitServerInterceptor extends PolarisServerInterceptor
 
     private static final Logger LOG = LoggerFactory.getLogger(PolarisRateLimitServerInterceptor.class);
 
+    /**
+     * 分布式限流续租的线程, 所有拦截器共享, 续租不阻塞请求线程
+     */
+    private static final ExecutorService QUOTA_LEASE_EXECUTOR = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r);
+        t.setDaemon(true);
+        t.setName("polaris-grpc-quota-lease");
+        return t;
+    });
+
     private LimitAPI limitAPI;
 
     private ConsumerAPI consumerAPI;
 
+    private RateLimitPlanCache planCache;
+
     private String namespace = "default";
 
     private String applicationName = "";
 
     private BiFunction<QuotaResponse, String, Status> rateLimitCallback;
 
+    /**
+     * 分布式限流是否批量预申请配额
+     */
+    private boolean quotaLeaseEnabled;
+
     public PolarisRateLimitServerInterceptor() {
     }
 
@@ -86,12 +99,17 @@ public class PolarisRateLimitServerInterceptor extends PolarisServerInterceptor
         this.rateLimitCallback = rateLimitCallback;
     }
 
+    public void setQuotaLeaseEnabled(boolean quotaLeaseEnabled) {
+        this.quotaLeaseEnabled = quotaLeaseEnabled;
+    }
+
     @Override
     public void init(final String namespace, final String applicationName, SDKContext context) {
         this.namespace = namespace;
         this.applicationName = applicationName;
         this.limitAPI = LimitAPIFactory.createLimitAPIByContext(context);
         this.consumerAPI = DiscoveryAPIFactory.createConsumerAPIByContext(context);
+        this.planCache = new RateLimitPlanCache(context, consumerAPI);
     }
 
     @Override
@@ -104,14 +122,43 @@ public class PolarisRateLimitServerInterceptor extends PolarisServerInterceptor
         final String method = applicationRegisterMode ? call.getMethodDescriptor().getFullMethodName()
                 : call.getMethodDescriptor().getBareMethodName();
 
+        final RateLimitPlan plan = planCache.get(new ServiceKey(namespace, serviceName), method);
+
+        // 命中的规则都是单机限流时直接在本地判断, 本地判断只基于请求原始的标签, 注入了自定义标签时交给 SDK 处理
+        final LocalRateLimiter localLimiter = plan.getLocalLimiter();
+        if (Objects.nonNull(localLimiter) && PolarisHelper.isDefaultLabelsInject()) {
+            String callerIp = localLimiter.isRequireCallerIp() ? callerIp(call) : null;
+            LocalRateLimiter.Result result = localLimiter.acquire(method, headers, callerIp);
+            if (result == LocalRateLimiter.Result.PASS) {
+                return next.startCall(call, headers);
+            }
+            if (result == LocalRateLimiter.Result.LIMITED) {
+                return reject(call, headers, LocalRateLimiter.LIMITED_RESPONSE);
+            }
+        }
+
         final QuotaRequest request = new QuotaRequest();
         request.setNamespace(namespace);
         request.setService(serviceName);
         request.setMethod(method);
         request.setCount(1);
-
-        RateLimitResp ruleResp = loadRateLimitRule(new ServiceKey(namespace, serviceName));
-        request.setArguments(buildArguments(ruleResp, call, headers));
+        request.setArguments(buildArguments(plan, call, headers));
+
+        // 分布式限流优先从本地租约中扣减配额, 租约不足时在后台续租
+        final QuotaLeaser quotaLeaser = plan.getQuotaLeaser();
+        if (quotaLeaseEnabled && Objects.nonNull(quotaLeaser)) {
+            QuotaLeaser.Lease lease = quotaLeaser.lease(request.getArguments());
+            if (Objects.nonNull(lease)) {
+                long nowNanos = System.nanoTime();
+                boolean acquired = lease.tryAcquire(nowNanos);
+                if (lease.startRefill(nowNanos)) {
+                    refill(lease, request, nowNanos);
+                }
+                if (acquired) {
+                    return next.startCall(call, headers);
+                }
+            }
+        }
 
         LOG.debug("[grpc-polaris] do acquire rate-limit quota, request : {}", request);
 
@@ -119,75 +166,84 @@ public class PolarisRateLimitServerInterceptor extends PolarisServerInterceptor
         if (Objects.equals(response.getCode(), QuotaResultCode.QuotaResultOk)) {
             return next.startCall(call, headers);
         }
+        return reject(call, headers, response);
+    }
+
+    private void refill(QuotaLeaser.Lease lease, QuotaRequest template, long nowNanos) {
+        final QuotaRequest request = new QuotaRequest();
+        request.setNamespace(template.getNamespace());
+        request.setService(template.getService());
+        request.setMethod(template.getMethod());
+        request.setArguments(template.getArguments());
+        final int size = lease.nextLeaseSize(nowNanos);
+        request.setCount(size);
+        try {
+            QUOTA_LEASE_EXECUTOR.execute(() -> {
+                try {
+                    QuotaResponse response = limitAPI.getQuota(request);
+                    if (Objects.equals(response.getCode(), QuotaResultCode.QuotaResultOk)) {
+                        lease.onRefilled(size, System.nanoTime());
+                    } else {
+                        lease.onRefillRejected(System.nanoTime());
+                    }
+                } catch (RuntimeException e) {
+                    LOG.warn("[grpc-polaris] lease rate-limit quota fail, request : {}", request, e);
+                    lease.onRefillRejected(System.nanoTime());
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            lease.onRefillRejected(nowNanos);
+        }
+    }
 
+    private <ReqT, RespT> Listener<ReqT> reject(ServerCall<ReqT, RespT> call, Metadata headers,
+                                                QuotaResponse response) {
         Status errStatus = rateLimitCallback.apply(response, call.getMethodDescriptor().getFullMethodName());
         call.close(errStatus, headers);
         return new ServerCall.Listener<ReqT>() {
         };
     }
 
-    private <ReqT, RespT> Set<Argument> buildArguments(RateLimitResp rateLimitResp,
-                                                       ServerCall<ReqT, RespT> call, Metadata headers) {
+    private <ReqT, RespT> Set<Argument> buildArguments(RateLimitPlan plan, ServerCall<ReqT, RespT> call,
+                                                       Metadata headers) {
+        // 没有任何规则需要提取标签时跳过提取
+        if (plan.isEmpty()) {
+            return PolarisHelper.getLabelsInject().modifyRateLimit(new HashSet<>());
+        }
         final Set<Argument> arguments = new HashSet<>();
-        final Set<MatchArgument> matchArguments = new HashSet<>();
 
-        rateLimitResp.rules.forEach(rule -> {
-            if (rule.hasDisable()) {
-                return;
-            }
-            matchArguments.addAll(rule.getArgumentsList());
-        });
-
-        matchArguments.forEach(argument -> {
-            String key = argument.getKey();
-            switch (argument.getType()) {
-                case HEADER:
-                    arguments.add(Argument.buildHeader(argument.getKey(), headers.get(Key.of(key, Metadata.ASCII_STRING_MARSHALLER))));
-                    break;
-                case CALLER_IP:
-                    HttpConnectProxiedSocketAddress clientAddress = (HttpConnectProxiedSocketAddress) call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
-                    if (Objects.nonNull(clientAddress)) {
-                        InetSocketAddress address = clientAddress.getTargetAddress();
-                        if (Objects.nonNull(address)) {
-                            arguments.add(Argument.buildCallerIP(address.getAddress().getHostAddress()));
-                        }
-                    }
-                    break;
-                case CALLER_SERVICE:
-                    String callerNamespace = headers.get(Common.CALLER_NAMESPACE_KEY);
-                    String callerService = headers.get(Common.CALLER_SERVICE_KEY);
-                    arguments.add(Argument.buildCallerService(callerNamespace, callerService));
-                    break;
+        final String[] headerNames = plan.getHeaderNames();
+        final Key<String>[] headerKeys = plan.getHeaderKeys();
+        for (int i = 0; i < headerKeys.length; i++) {
+            arguments.add(Argument.buildHeader(headerNames[i], headers.get(headerKeys[i])));
+        }
+        if (plan.isRequireCallerIp()) {
+            String callerIp = callerIp(call);
+            if (Objects.nonNull(callerIp)) {
+                arguments.add(Argument.buildCallerIP(callerIp));
             }
-        });
+        }
+        if (plan.isRequireCallerService()) {
+            String callerNamespace = headers.get(Common.CALLER_NAMESPACE_KEY);
+            String callerService = headers.get(Common.CALLER_SERVICE_KEY);
+            arguments.add(Argument.buildCallerService(callerNamespace, callerService));
+        }
 
-        Set<Argument> finalArguments = PolarisHelper.getLabelsInject().modifyRateLimit(arguments);
-        return finalArguments;
+        return PolarisHelper.getLabelsInject().modifyRateLimit(arguments);
     }
 
-    private RateLimitResp loadRateLimitRule(ServiceKey target) {
-        GetServiceRuleRequest inBoundReq = new GetServiceRuleRequest();
-        inBoundReq.setService(target.getService());
-        inBoundReq.setNamespace(target.getNamespace());
-        inBoundReq.setRuleType(EventType.RATE_LIMITING);
-
-        ServiceRuleResponse inBoundResp = consumerAPI.getServiceRule(inBoundReq);
-        RateLimit inBoundRule = (RateLimit) inBoundResp.getServiceRule().getRule();
-        if (Objects.nonNull(inBoundRule)) {
-            return new RateLimitResp(inBoundRule.getRulesList(), target);
+    private static String callerIp(ServerCall<?, ?> call) {
+        SocketAddress remoteAddress = call.getAttributes().get(Grpc.TRANSPORT_ATTR_REMOTE_ADDR);
+        InetSocketAddress address = null;
+        if (remoteAddress instanceof HttpConnectProxiedSocketAddress) {
+            address = ((HttpConnectProxiedSocketAddress) remoteAddress).getTargetAddress();
+        } else if (remoteAddress instanceof InetSocketAddress) {
+            address = (InetSocketAddress) remoteAddress;
         }
-        return new RateLimitResp(Collections.emptyList(), null);
-    }
-
-    private static class RateLimitResp {
-        final List<Rule> rules;
-        final ServiceKey serviceKey;
-
-        private RateLimitResp(List<Rule> rules, ServiceKey serviceKey) {
-            this.rules = rules;
-            this.serviceKey = serviceKey;
+        if (Objects.isNull(address) || Objects.isNull(address.getAddress())) {
+            return null;
         }
-
+        return address.getAddress().getHostAddress();
     }
 
 }
@@ -0,0 +1,216 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.ratelimit;
+
+import com.tencent.polaris.ratelimit.api.rpc.Argument;
+import com.tencent.polaris.specification.api.v1.traffic.manage.RateLimitProto.Amount;
+import com.tencent.polaris.specification.api.v1.traffic.manage.RateLimitProto.Rule;
+
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 分布式限流的配额租约, 按照限流标签划分, 每次从 SDK 批量申请一批配额, 请求优先从本地租约中扣减,
+ * 剩余配额不足时在后台提前续租, 减少每个请求与限流服务端的交互。
+ * <p>
+ * 租约大小根据观测到的请求速率调整, 覆盖大约 {@link #LEASE_WINDOW_NANOS} 的请求量, 并且不超过规则配额的 1/10;
+ * 租约的有效期不超过规则中最短的统计周期, 过期后剩余的配额直接丢弃。规则变化时整个 {@link QuotaLeaser} 随
+ * {@link RateLimitPlanCache.RateLimitPlan} 一起被替换, 旧租约中未使用的配额同样被丢弃 (SDK 没有归还配额的接口)
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class QuotaLeaser {
+
+    static final int MAX_LEASE_SIZE = 1000;
+
+    /**
+     * 单个方法下按照标签划分的租约数量上限, 超过时直接向 SDK 申请配额
+     */
+    static final int MAX_LEASES = 1024;
+
+    private static final long LEASE_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private static final long MAX_LEASE_TTL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * 续租被拒绝后, 在这段时间内不再续租, 请求直接交给 SDK 判断
+     */
+    private static final long REFILL_BACKOFF_NANOS = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private final int maxLeaseSize;
+
+    private final long leaseTtlNanos;
+
+    private final Map<Set<Argument>, Lease> leases = new ConcurrentHashMap<>();
+
+    private QuotaLeaser(int maxLeaseSize, long leaseTtlNanos) {
+        this.maxLeaseSize = maxLeaseSize;
+        this.leaseTtlNanos = leaseTtlNanos;
+    }
+
+    /**
+     * 根据某个方法可能命中的规则构建配额租约
+     *
+     * @param rules 可能命中该方法的规则
+     * @return {@link QuotaLeaser}, 规则不全是分布式 QPS 限流时返回 null
+     */
+    static QuotaLeaser compile(List<Rule> rules) {
+        if (rules.isEmpty()) {
+            return null;
+        }
+        long maxAmount = Long.MAX_VALUE;
+        long minDurationNanos = Long.MAX_VALUE;
+        for (Rule rule : rules) {
+            if (rule.getType() != Rule.Type.GLOBAL || rule.getResource() != Rule.Resource.QPS
+                    || rule.getAmountsList().isEmpty()) {
+                return null;
+            }
+            for (Amount amount : rule.getAmountsList()) {
+                maxAmount = Math.min(maxAmount, amount.getMaxAmount().getValue());
+                minDurationNanos = Math.min(minDurationNanos,
+                        TimeUnit.SECONDS.toNanos(amount.getValidDuration().getSeconds())
+                                + amount.getValidDuration().getNanos());
+            }
+        }
+        if (maxAmount <= 0 || minDurationNanos <= 0) {
+            return null;
+        }
+        int maxLeaseSize = (int) Math.max(1, Math.min(MAX_LEASE_SIZE, maxAmount / 10));
+        return new QuotaLeaser(maxLeaseSize, Math.min(MAX_LEASE_TTL_NANOS, minDurationNanos));
+    }
+
+    /**
+     * @param arguments 本次请求的限流标签
+     * @return 标签对应的租约, 租约数量超过上限时返回 null
+     */
+    Lease lease(Set<Argument> arguments) {
+        Lease lease = leases.get(arguments);
+        if (Objects.isNull(lease)) {
+            if (leases.size() >= MAX_LEASES) {
+                return null;
+            }
+            lease = leases.computeIfAbsent(arguments, key -> new Lease(maxLeaseSize, leaseTtlNanos));
+        }
+        return lease;
+    }
+
+    static final class Lease {
+
+        private final int maxLeaseSize;
+
+        private final long leaseTtlNanos;
+
+        private final AtomicLong tokens = new AtomicLong();
+
+        private final AtomicBoolean refilling = new AtomicBoolean();
+
+        private final LongAdder requests = new LongAdder();
+
+        private volatile long expireNanos = System.nanoTime();
+
+        private volatile long retryAfterNanos = System.nanoTime();
+
+        private volatile long lastSampleNanos = System.nanoTime();
+
+        /**
+         * 请求速率的 EWMA, 单位 次/秒
+         */
+        private volatile double rate;
+
+        private volatile int lastLeaseSize = 1;
+
+        private Lease(int maxLeaseSize, long leaseTtlNanos) {
+            this.maxLeaseSize = maxLeaseSize;
+            this.leaseTtlNanos = leaseTtlNanos;
+        }
+
+        /**
+         * 从租约中扣减一个配额
+         *
+         * @param nowNanos 当前时间
+         * @return 是否扣减成功, 失败时需要直接向 SDK 申请
+         */
+        boolean tryAcquire(long nowNanos) {
+            requests.increment();
+            if (nowNanos - expireNanos >= 0) {
+                return false;
+            }
+            for (;;) {
+                long current = tokens.get();
+                if (current <= 0) {
+                    return false;
+                }
+                if (tokens.compareAndSet(current, current - 1)) {
+                    return true;
+                }
+            }
+        }
+
+        /**
+         * 租约已经过期或者剩余配额低于上一次租约的 1/4 时开始续租, 同一时间只有一个续租
+         *
+         * @return 是否需要由调用方发起续租
+         */
+        boolean startRefill(long nowNanos) {
+            if (refilling.get() || nowNanos - retryAfterNanos < 0) {
+                return false;
+            }
+            boolean expired = nowNanos - expireNanos >= 0;
+            if (!expired && tokens.get() > lastLeaseSize / 4) {
+                return false;
+            }
+            return refilling.compareAndSet(false, true);
+        }
+
+        /**
+         * 根据观测到的请求速率计算本次续租的配额数量
+         */
+        int nextLeaseSize(long nowNanos) {
+            long elapsed = Math.max(1, nowNanos - lastSampleNanos);
+            lastSampleNanos = nowNanos;
+            double current = requests.sumThenReset() * (double) TimeUnit.SECONDS.toNanos(1) / elapsed;
+            double smoothed = rate == 0 ? current : rate * 0.5 + current * 0.5;
+            rate = smoothed;
+            long size = (long) Math.ceil(smoothed * LEASE_WINDOW_NANOS / TimeUnit.SECONDS.toNanos(1));
+            lastLeaseSize = (int) Math.max(1, Math.min(maxLeaseSize, size));
+            return lastLeaseSize;
+        }
+
+        void onRefilled(int size, long nowNanos) {
+            if (nowNanos - expireNanos >= 0) {
+                // 过期租约中剩余的配额属于上一个统计周期, 不能继续使用
+                tokens.set(size);
+            } else {
+                tokens.addAndGet(size);
+            }
+            expireNanos = nowNanos + leaseTtlNanos;
+            refilling.set(false);
+        }
+
+        void onRefillRejected(long nowNanos) {
+            retryAfterNanos = nowNanos + REFILL_BACKOFF_NANOS;
+            refilling.set(false);
+        }
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.ratelimit;
+
+import com.tencent.polaris.api.core.ConsumerAPI;
+import com.tencent.polaris.api.plugin.registry.ResourceEventListener;
+import com.tencent.polaris.api.pojo.RegistryCacheValue;
+import com.tencent.polaris.api.pojo.ServiceEventKey;
+import com.tencent.polaris.api.pojo.ServiceEventKey.EventType;
+import com.tencent.polaris.api.pojo.ServiceKey;
+import com.tencent.polaris.api.pojo.ServiceRule;
+import com.tencent.polaris.api.rpc.GetServiceRuleRequest;
+import com.tencent.polaris.api.rpc.ServiceRuleResponse;
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.client.api.SDKContext;
+import com.tencent.polaris.specification.api.v1.model.ModelProto.MatchString;
+import com.tencent.polaris.specification.api.v1.traffic.manage.RateLimitProto.MatchArgument;
+import com.tencent.polaris.specification.api.v1.traffic.manage.RateLimitProto.RateLimit;
+import com.tencent.polaris.specification.api.v1.traffic.manage.RateLimitProto.Rule;
+import io.grpc.Metadata;
+import io.grpc.Metadata.Key;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 按照 (服务, 方法) 维度缓存编译后的限流标签提取计划 {@link RateLimitPlan}, 只有当北极星通知限流规则发生变化时才会重新构建,
+ * 避免每次请求都去执行 {@link ConsumerAPI#getServiceRule(GetServiceRuleRequest)} 以及遍历规则
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class RateLimitPlanCache implements ResourceEventListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RateLimitPlanCache.class);
+
+    private final ConsumerAPI consumerAPI;
+
+    private final Map<ServiceKey, Holder> holders = new ConcurrentHashMap<>();
+
+    RateLimitPlanCache(final SDKContext context, final ConsumerAPI consumerAPI) {
+        this.consumerAPI = consumerAPI;
+        context.getExtensions().getLocalRegistry().registerResourceListener(this);
+    }
+
+    RateLimitPlanCache(final ConsumerAPI consumerAPI) {
+        this.consumerAPI = consumerAPI;
+    }
+
+    /**
+     * 获取服务某个方法当前生效的限流标签提取计划
+     *
+     * @param service 服务
+     * @param method  方法, 与 QuotaRequest 中的 method 保持一致
+     * @return {@link RateLimitPlan}
+     */
+    RateLimitPlan get(ServiceKey service, String method) {
+        Holder holder = holders.get(service);
+        if (Objects.isNull(holder)) {
+            holder = holders.computeIfAbsent(service, key -> new Holder(key, consumerAPI));
+        }
+        return holder.get(method);
+    }
+
+    @Override
+    public void onResourceAdd(ServiceEventKey svcEventKey, RegistryCacheValue newValue) {
+        onRuleChange(svcEventKey, newValue);
+    }
+
+    @Override
+    public void onResourceUpdated(ServiceEventKey svcEventKey, RegistryCacheValue oldValue,
+            RegistryCacheValue newValue) {
+        onRuleChange(svcEventKey, newValue);
+    }
+
+    @Override
+    public void onResourceDeleted(ServiceEventKey svcEventKey, RegistryCacheValue oldValue) {
+        onRuleChange(svcEventKey, null);
+    }
+
+    private void onRuleChange(ServiceEventKey svcEventKey, RegistryCacheValue newValue) {
+        if (svcEventKey.getEventType() != EventType.RATE_LIMITING) {
+            return;
+        }
+        Holder holder = holders.get(svcEventKey.getServiceKey());
+        if (Objects.nonNull(holder)) {
+            holder.onRuleChange(newValue instanceof ServiceRule ? ((ServiceRule) newValue).getRevision() : null);
+        }
+    }
+
+    /**
+     * 持有某个服务最新的限流规则以及按方法编译好的 {@link RateLimitPlan}, 规则变化时整体替换
+     */
+    private static final class Holder {
+
+        private final ServiceKey service;
+
+        private final ConsumerAPI consumerAPI;
+
+        private final AtomicLong version = new AtomicLong();
+
+        private volatile Rules rules;
+
+        private Holder(ServiceKey service, ConsumerAPI consumerAPI) {
+            this.service = service;
+            this.consumerAPI = consumerAPI;
+        }
+
+        private RateLimitPlan get(String method) {
+            Rules current = rules;
+            long expect = version.get();
+            if (Objects.isNull(current) || current.version != expect) {
+                current = load(expect);
+                rules = current;
+            }
+            RateLimitPlan plan = current.plans.get(method);
+            if (Objects.isNull(plan)) {
+                final List<Rule> compileRules = current.rules;
+                plan = current.plans.computeIfAbsent(method, m -> RateLimitPlan.compile(compileRules, m));
+            }
+            return plan;
+        }
+
+        private void onRuleChange(String revision) {
+            Rules current = rules;
+            if (Objects.nonNull(current) && Objects.nonNull(revision) && StringUtils.equals(revision, current.revision)) {
+                return;
+            }
+            LOG.info("[grpc-polaris] rate-limit rule changed, service:{} revision:{}", service, revision);
+            version.incrementAndGet();
+        }
+
+        private Rules load(long rulesVersion) {
+            GetServiceRuleRequest request = new GetServiceRuleRequest();
+            request.setService(service.getService());
+            request.setNamespace(service.getNamespace());
+            request.setRuleType(EventType.RATE_LIMITING);
+
+            ServiceRuleResponse response = consumerAPI.getServiceRule(request);
+            ServiceRule serviceRule = response.getServiceRule();
+            List<Rule> rules = new ArrayList<>();
+            if (Objects.nonNull(serviceRule) && serviceRule.getRule() instanceof RateLimit) {
+                for (Rule rule : ((RateLimit) serviceRule.getRule()).getRulesList()) {
+                    if (!rule.hasDisable() || !rule.getDisable().getValue()) {
+                        rules.add(rule);
+                    }
+                }
+            }
+            return new Rules(rulesVersion, rules, Objects.isNull(serviceRule) ? null : serviceRule.getRevision());
+        }
+    }
+
+    private static final class Rules {
+
+        private final long version;
+
+        private final List<Rule> rules;
+
+        private final String revision;
+
+        private final Map<String, RateLimitPlan> plans = new ConcurrentHashMap<>();
+
+        private Rules(long version, List<Rule> rules, String revision) {
+            this.version = version;
+            this.rules = rules;
+            this.revision = revision;
+        }
+    }
+
+    /**
+     * 编译后的限流标签提取计划, 包含预先构建好的请求头 {@link Key} 以及是否需要主调 IP、主调服务;
+     * 命中的规则都可以在本地处理时还包含 {@link LocalRateLimiter}, 都是分布式限流时包含 {@link QuotaLeaser}
+     */
+    static final class RateLimitPlan {
+
+        static final RateLimitPlan EMPTY = new RateLimitPlan(Collections.emptySet(), false, false, null, null);
+
+        private final String[] headerNames;
+
+        private final Key<String>[] headerKeys;
+
+        private final boolean requireCallerIp;
+
+        private final boolean requireCallerService;
+
+        private final LocalRateLimiter localLimiter;
+
+        private final QuotaLeaser quotaLeaser;
+
+        @SuppressWarnings("unchecked")
+        private RateLimitPlan(Set<String> headers, boolean requireCallerIp, boolean requireCallerService,
+                LocalRateLimiter localLimiter, QuotaLeaser quotaLeaser) {
+            this.headerNames = headers.toArray(new String[0]);
+            this.headerKeys = new Key[headerNames.length];
+            for (int i = 0; i < headerNames.length; i++) {
+                headerKeys[i] = Key.of(headerNames[i], Metadata.ASCII_STRING_MARSHALLER);
+            }
+            this.requireCallerIp = requireCallerIp;
+            this.requireCallerService = requireCallerService;
+            this.localLimiter = localLimiter;
+            this.quotaLeaser = quotaLeaser;
+        }
+
+        static RateLimitPlan compile(List<Rule> rules, String method) {
+            Set<String> headers = new LinkedHashSet<>();
+            boolean callerIp = false;
+            boolean callerService = false;
+            List<Rule> matched = new ArrayList<>();
+            boolean undetermined = false;
+            for (Rule rule : rules) {
+                MethodMatch match = matchMethod(rule.getMethod(), method);
+                if (match == MethodMatch.MISMATCH) {
+                    continue;
+                }
+                undetermined |= match == MethodMatch.UNDETERMINED;
+                matched.add(rule);
+                for (MatchArgument argument : rule.getArgumentsList()) {
+                    switch (argument.getType()) {
+                        case HEADER:
+                            headers.add(argument.getKey());
+                            break;
+                        case CALLER_IP:
+                            callerIp = true;
+                            break;
+                        case CALLER_SERVICE:
+                            callerService = true;
+                            break;
+                        default:
+                            break;
+                    }
+                }
+            }
+            // 本地无法判断规则是否作用于该方法时, 不能绕过 SDK 在本地限流或者扣减租约, 每个请求都交给 SDK 判断
+            LocalRateLimiter localLimiter = undetermined ? null : LocalRateLimiter.compile(matched);
+            QuotaLeaser quotaLeaser = undetermined || Objects.nonNull(localLimiter) ? null
+                    : QuotaLeaser.compile(matched);
+            if (headers.isEmpty() && !callerIp && !callerService && Objects.isNull(localLimiter)
+                    && Objects.isNull(quotaLeaser)) {
+                return EMPTY;
+            }
+            return new RateLimitPlan(headers, callerIp, callerService, localLimiter, quotaLeaser);
+        }
+
+        /**
+         * 判断规则是否作用于该方法, 非法的正则以及未知的匹配方式无法在本地判断, 最终是否限流由 SDK 决定
+         */
+        private static MethodMatch matchMethod(MatchString matcher, String method) {
+            if (Objects.isNull(matcher) || Objects.isNull(matcher.getValue())
+                    || StringUtils.isBlank(matcher.getValue().getValue())) {
+                return MethodMatch.MATCH;
+            }
+            String value = matcher.getValue().getValue();
+            switch (matcher.getType()) {
+                case EXACT:
+                    return MethodMatch.of(StringUtils.equals(value, method));
+                case NOT_EQUALS:
+                    return MethodMatch.of(!StringUtils.equals(value, method));
+                case IN:
+                    return MethodMatch.of(contains(value, method));
+                case NOT_IN:
+                    return MethodMatch.of(!contains(value, method));
+                case REGEX:
+                    try {
+                        return MethodMatch.of(Pattern.compile(value).matcher(method).find());
+                    } catch (PatternSyntaxException e) {
+                        return MethodMatch.UNDETERMINED;
+                    }
+                default:
+                    return MethodMatch.UNDETERMINED;
+            }
+        }
+
+        private static boolean contains(String values, String method) {
+            for (String value : values.split(",")) {
+                if (StringUtils.equals(value.trim(), method)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /**
+         * @return 是否不需要提取任何标签
+         */
+        boolean isEmpty() {
+            return this == EMPTY;
+        }
+
+        /**
+         * @return 本地限流引擎, 存在需要交给 SDK 处理的规则时为 null
+         */
+        LocalRateLimiter getLocalLimiter() {
+            return localLimiter;
+        }
+
+        /**
+         * @return 分布式限流的配额租约, 命中的规则不全是分布式 QPS 限流时为 null
+         */
+        QuotaLeaser getQuotaLeaser() {
+            return quotaLeaser;
+        }
+
+        String[] getHeaderNames() {
+            return headerNames;
+        }
+
+        Key<String>[] getHeaderKeys() {
+            return headerKeys;
+        }
+
+        boolean isRequireCallerIp() {
+            return requireCallerIp;
+        }
+
+        boolean isRequireCallerService() {
+            return requireCallerService;
+        }
+
+        private enum MethodMatch {
+
+            MATCH,
+
+            MISMATCH,
+
+            /**
+             * 本地无法判断, 例如非法的正则或者未知的匹配方式
+             */
+            UNDETERMINED;
+
+            private static MethodMatch of(boolean match) {
+                return match ? MATCH : MISMATCH;
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.resolver;
+
+import com.tencent.polaris.api.pojo.DefaultInstance;
+import com.tencent.polaris.api.pojo.Instance;
+import com.tencent.polaris.api.pojo.ServiceKey;
+import com.tencent.polaris.api.utils.StringUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 服务实例的本地快照, 每个服务一个文件, 保存最近一次成功解析的实例。进程启动时先使用快照中的实例,
+ * 北极星服务端不可用时快照作为兜底。
+ * <p>
+ * 文件格式: magic(4) | version(2) | crc32(4) | body length(4) | body, body 中字符串以 长度 + UTF-8 字节 保存。
+ * 写入时先写临时文件再原子 rename, 读取时通过 mmap 直接解析
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class InstanceSnapshotStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(InstanceSnapshotStore.class);
+
+    private static final int MAGIC = 0x50474953;
+
+    /**
+     * 版本 2 开始保存实例的健康以及隔离状态, 旧版本的快照直接忽略
+     */
+    private static final short VERSION = 2;
+
+    private static final int HEADER_LENGTH = 14;
+
+    private static final String SUFFIX = ".snapshot";
+
+    private final Path dir;
+
+    InstanceSnapshotStore(Path dir) {
+        this.dir = dir;
+    }
+
+    Path getDir() {
+        return dir;
+    }
+
+    /**
+     * @param dir 快照目录, 为空时不开启快照
+     * @return {@link InstanceSnapshotStore}, 没有开启时返回 null
+     */
+    static InstanceSnapshotStore of(String dir) {
+        return StringUtils.isBlank(dir) ? null : new InstanceSnapshotStore(Paths.get(dir));
+    }
+
+    /**
+     * 读取服务的实例快照
+     *
+     * @param serviceKey 服务
+     * @return 快照中的实例, 快照不存在、版本不兼容或者已经损坏时返回 null
+     */
+    List<Instance> load(ServiceKey serviceKey) {
+        Path file = file(serviceKey);
+        if (!Files.isRegularFile(file)) {
+            return null;
+        }
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() < HEADER_LENGTH) {
+                return null;
+            }
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getShort() != VERSION) {
+                LOG.warn("[grpc-polaris] ignore incompatible instance snapshot {}", file);
+                return null;
+            }
+            int crc = buffer.getInt();
+            int length = buffer.getInt();
+            if (length != buffer.remaining()) {
+                LOG.warn("[grpc-polaris] ignore truncated instance snapshot {}", file);
+                return null;
+            }
+            CRC32 crc32 = new CRC32();
+            crc32.update(buffer.duplicate());
+            if ((int) crc32.getValue() != crc) {
+                LOG.warn("[grpc-polaris] ignore corrupted instance snapshot {}", file);
+                return null;
+            }
+            return readInstances(serviceKey, buffer);
+        } catch (IOException | RuntimeException e) {
+            LOG.warn("[grpc-polaris] read instance snapshot {} fail", file, e);
+            return null;
+        }
+    }
+
+    /**
+     * 保存服务的实例快照, 失败时只记录日志
+     *
+     * @param serviceKey 服务
+     * @param instances  实例
+     */
+    void save(ServiceKey serviceKey, Collection<Instance> instances) {
+        Path file = file(serviceKey);
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try {
+            byte[] body = writeInstances(instances);
+            CRC32 crc32 = new CRC32();
+            crc32.update(body);
+
+            ByteBuffer buffer = ByteBuffer.allocate(HEADER_LENGTH + body.length);
+            buffer.putInt(MAGIC).putShort(VERSION).putInt((int) crc32.getValue()).putInt(body.length).put(body);
+            buffer.flip();
+
+            Files.createDirectories(dir);
+            try (FileChannel channel = FileChannel.open(tmp, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING)) {
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            try {
+                Files.move(tmp, file, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException e) {
+            LOG.warn("[grpc-polaris] write instance snapshot {} fail", file, e);
+        }
+    }
+
+    private Path file(ServiceKey serviceKey) {
+        try {
+            return dir.resolve(URLEncoder.encode(serviceKey.getNamespace(), "UTF-8") + "#"
+                    + URLEncoder.encode(serviceKey.getService(), "UTF-8") + SUFFIX);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static byte[] writeInstances(Collection<Instance> instances) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(instances.size() * 128);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(System.currentTimeMillis());
+        out.writeInt(instances.size());
+        for (Instance instance : instances) {
+            writeString(out, instance.getId());
+            writeString(out, instance.getHost());
+            out.writeInt(instance.getPort());
+            out.writeInt(instance.getWeight());
+            out.writeBoolean(instance.isHealthy());
+            out.writeBoolean(instance.isIsolated());
+            writeString(out, instance.getProtocol());
+            writeString(out, instance.getVersion());
+            writeString(out, instance.getRevision());
+            writeString(out, instance.getRegion());
+            writeString(out, instance.getZone());
+            writeString(out, instance.getCampus());
+            Map<String, String> metadata = instance.getMetadata();
+            if (metadata == null) {
+                out.writeInt(-1);
+            } else {
+                out.writeInt(metadata.size());
+                for (Map.Entry<String, String> entry : metadata.entrySet()) {
+                    writeString(out, entry.getKey());
+                    writeString(out, entry.getValue());
+                }
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static List<Instance> readInstances(ServiceKey serviceKey, ByteBuffer buffer) {
+        buffer.getLong();
+        int size = buffer.getInt();
+        List<Instance> instances = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            DefaultInstance instance = new DefaultInstance();
+            instance.setNamespace(serviceKey.getNamespace());
+            instance.setService(serviceKey.getService());
+            instance.setId(readString(buffer));
+            instance.setHost(readString(buffer));
+            instance.setPort(buffer.getInt());
+            instance.setWeight(buffer.getInt());
+            instance.setHealthy(buffer.get() != 0);
+            instance.setIsolated(buffer.get() != 0);
+            instance.setProtocol(readString(buffer));
+            instance.setVersion(readString(buffer));
+            instance.setRevision(readString(buffer));
+            instance.setRegion(readString(buffer));
+            instance.setZone(readString(buffer));
+            instance.setCampus(readString(buffer));
+            int metadataSize = buffer.getInt();
+            if (metadataSize >= 0) {
+                Map<String, String> metadata = new HashMap<>(metadataSize * 2);
+                for (int j = 0; j < metadataSize; j++) {
+                    metadata.put(readString(buffer), readString(buffer));
+                }
+                instance.setMetadata(metadata);
+            }
+            instances.add(instance);
+        }
+        return instances;
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        if (value == null) {
+            out.writeInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
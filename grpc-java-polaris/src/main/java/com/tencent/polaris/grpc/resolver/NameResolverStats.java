@@ -0,0 +1,166 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.resolver;
+
+import com.tencent.polaris.api.pojo.ServiceKey;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 服务发现的运行统计信息, 按照被调服务维度聚合, 同一个被调服务的多个 channel 共享同一份统计。
+ * 收到的实例变更事件数明显大于发布地址的次数时, 说明事件合并在起作用
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public final class NameResolverStats {
+
+    private static final Map<ServiceKey, NameResolverStats> STATS = new ConcurrentHashMap<>();
+
+    private final ServiceKey target;
+
+    private final LongAdder eventsReceived = new LongAdder();
+
+    private final LongAdder incrementalUpdates = new LongAdder();
+
+    private final LongAdder fullResolutions = new LongAdder();
+
+    private final LongAdder resultsPushed = new LongAdder();
+
+    private final LongAdder panicTransitions = new LongAdder();
+
+    private volatile int subscribers;
+
+    private volatile boolean panicMode;
+
+    private NameResolverStats(ServiceKey target) {
+        this.target = target;
+    }
+
+    /**
+     * 获取被调服务对应的统计信息
+     *
+     * @param target 被调服务
+     * @return {@link NameResolverStats}
+     */
+    public static NameResolverStats of(ServiceKey target) {
+        return STATS.computeIfAbsent(target, NameResolverStats::new);
+    }
+
+    /**
+     * 获取当前进程内所有被调服务的统计信息
+     *
+     * @return {@link Map<ServiceKey, NameResolverStats>}
+     */
+    public static Map<ServiceKey, NameResolverStats> all() {
+        return Collections.unmodifiableMap(STATS);
+    }
+
+    public ServiceKey getTarget() {
+        return target;
+    }
+
+    /**
+     * @return 收到的实例变更事件数
+     */
+    public long getEventsReceived() {
+        return eventsReceived.sum();
+    }
+
+    /**
+     * @return 增量应用的实例变更事件数
+     */
+    public long getIncrementalUpdates() {
+        return incrementalUpdates.sum();
+    }
+
+    /**
+     * @return 全量拉取实例的次数
+     */
+    public long getFullResolutions() {
+        return fullResolutions.sum();
+    }
+
+    /**
+     * @return 发布地址变化的次数, 每次发布都会通知所有订阅的 resolver, 并触发负载均衡器重建 picker
+     */
+    public long getResultsPushed() {
+        return resultsPushed.sum();
+    }
+
+    /**
+     * @return 当前共享该服务订阅的 resolver 数量
+     */
+    public int getSubscribers() {
+        return subscribers;
+    }
+
+    /**
+     * @return 当前是否处于 panic 模式, 处于 panic 模式时不健康的实例也参与负载均衡
+     */
+    public boolean isPanicMode() {
+        return panicMode;
+    }
+
+    /**
+     * @return 进入以及退出 panic 模式的次数
+     */
+    public long getPanicTransitions() {
+        return panicTransitions.sum();
+    }
+
+    void recordPanicMode(boolean panicMode) {
+        this.panicMode = panicMode;
+        panicTransitions.increment();
+    }
+
+    void updateSubscribers(int subscribers) {
+        this.subscribers = subscribers;
+    }
+
+    void recordEventReceived() {
+        eventsReceived.increment();
+    }
+
+    void recordIncrementalUpdate() {
+        incrementalUpdates.increment();
+    }
+
+    void recordFullResolution() {
+        fullResolutions.increment();
+    }
+
+    void recordResultPushed() {
+        resultsPushed.increment();
+    }
+
+    @Override
+    public String toString() {
+        return "NameResolverStats{" +
+                "target=" + target +
+                ", eventsReceived=" + eventsReceived +
+                ", incrementalUpdates=" + incrementalUpdates +
+                ", fullResolutions=" + fullResolutions +
+                ", resultsPushed=" + resultsPushed +
+                ", subscribers=" + subscribers +
+                ", panicMode=" + panicMode +
+                ", panicTransitions=" + panicTransitions +
+                '}';
+    }
+}
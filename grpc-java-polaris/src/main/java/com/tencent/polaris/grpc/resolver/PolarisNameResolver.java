@@ -17,17 +17,13 @@
 package com.tencent.polaris.grpc.resolver;
 
 import com.tencent.polaris.api.core.ConsumerAPI;
-import com.tencent.polaris.api.listener.ServiceListener;
+import com.tencent.polaris.api.pojo.DefaultServiceInstances;
 import com.tencent.polaris.api.pojo.Instance;
 import com.tencent.polaris.api.pojo.RouteArgument;
-import com.tencent.polaris.api.pojo.ServiceChangeEvent;
 import com.tencent.polaris.api.pojo.ServiceInfo;
 import com.tencent.polaris.api.pojo.ServiceInstances;
 import com.tencent.polaris.api.pojo.ServiceKey;
-import com.tencent.polaris.api.rpc.GetHealthyInstancesRequest;
 import com.tencent.polaris.api.rpc.InstancesResponse;
-import com.tencent.polaris.api.rpc.UnWatchServiceRequest;
-import com.tencent.polaris.api.rpc.WatchServiceRequest;
 import com.tencent.polaris.client.api.SDKContext;
 import com.tencent.polaris.factory.api.RouterAPIFactory;
 import com.tencent.polaris.grpc.util.Common;
@@ -37,20 +33,21 @@ import com.tencent.polaris.router.api.rpc.ProcessRoutersRequest;
 import io.grpc.Attributes;
 import io.grpc.EquivalentAddressGroup;
 import io.grpc.NameResolver;
+import io.grpc.Status;
 
-import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.ArrayList;
 import java.util.Base64;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.ServiceLoader;
 import java.util.Set;
-import java.util.function.Consumer;
+import java.util.function.BiConsumer;
 import java.util.stream.Collectors;
 
 import org.checkerframework.checker.units.qual.A;
@@ -69,6 +66,8 @@ public class PolarisNameResolver extends NameResolver {
 
     private static final String DEFAULT_NAMESPACE = "default";
 
+    private static final long DEFAULT_COALESCE_WINDOW_MILLS = 100;
+
     private final ConsumerAPI consumerAPI;
 
     private final String namespace;
@@ -77,8 +76,6 @@ public class PolarisNameResolver extends NameResolver {
 
     private final URI targetUri;
 
-    private ServiceChangeWatcher watcher;
-
     private final SDKContext context;
 
     private Listener2 listener;
@@ -87,11 +84,39 @@ public class PolarisNameResolver extends NameResolver {
 
     private final List<ResolverInterceptor> interceptors = new ArrayList<>();
 
+    /**
+     * 事件合并窗口的长度, 通过 target 的 coalesce_window 参数设置, 单位毫秒, 小于等于 0 时不合并
+     */
+    private final long coalesceWindowMills;
+
+    /**
+     * 实例的本地快照, 通过 target 的 snapshot_dir 参数设置快照目录, 没有设置时不开启
+     */
+    private final InstanceSnapshotStore snapshotStore;
+
+    /**
+     * panic 阈值, 通过 target 的 panic_threshold 参数设置, 健康实例的占比 (百分比) 低于该值时不健康的实例也参与负载均衡,
+     * 小于等于 0 时不开启
+     */
+    private final int panicThreshold;
+
+    private final ServiceKey serviceKey;
+
+    private final BiConsumer<List<EquivalentAddressGroup>, Attributes> subscriber = this::onAddressesChange;
+
+    private boolean started;
+
+    private boolean shutdown;
+
     public PolarisNameResolver(URI targetUri, SDKContext context, ConsumerAPI consumerAPI) {
         this.targetUri = targetUri;
         Map<String, String> params = NetworkHelper.getUrlParams(targetUri.getQuery());
         this.service = targetUri.getHost();
         this.namespace = params.get("namespace") == null ? DEFAULT_NAMESPACE : params.get("namespace");
+        this.coalesceWindowMills = parseLong(params, "coalesce_window", DEFAULT_COALESCE_WINDOW_MILLS);
+        this.panicThreshold = parsePanicThreshold(params);
+        this.snapshotStore = InstanceSnapshotStore.of(params.get("snapshot_dir"));
+        this.serviceKey = new ServiceKey(namespace, service);
         this.context = context;
         this.consumerAPI = consumerAPI;
         ServiceLoader.load(ResolverInterceptor.class).iterator().forEachRemaining(interceptors::add);
@@ -102,6 +127,44 @@ public class PolarisNameResolver extends NameResolver {
         }
     }
 
+    /**
+     * 解析 target 中的数值参数, 没有设置或者不是合法的数字时使用默认值
+     */
+    private long parseLong(Map<String, String> params, String name, long defaultValue) {
+        String value = params.get(name);
+        if (Objects.isNull(value)) {
+            return defaultValue;
+        }
+        try {
+            return Long.parseLong(value.trim());
+        } catch (NumberFormatException e) {
+            LOG.warn("[grpc-polaris] target:{} invalid {}:{}, use default value:{}", targetUri, name, value,
+                    defaultValue);
+            return defaultValue;
+        }
+    }
+
+    /**
+     * panic 阈值是健康实例占比的百分比, 超出 [0, 100] 时不开启
+     */
+    private int parsePanicThreshold(Map<String, String> params) {
+        long threshold = parseLong(params, "panic_threshold", 0);
+        if (threshold < 0 || threshold > 100) {
+            LOG.warn("[grpc-polaris] target:{} panic_threshold:{} out of range [0, 100], disable panic mode",
+                    targetUri, threshold);
+            return 0;
+        }
+        return (int) threshold;
+    }
+
+    long getCoalesceWindowMills() {
+        return coalesceWindowMills;
+    }
+
+    int getPanicThreshold() {
+        return panicThreshold;
+    }
+
     @Override
     public String getServiceAuthority() {
         return service;
@@ -109,54 +172,74 @@ public class PolarisNameResolver extends NameResolver {
 
     @Override
     public void start(Listener2 listener) {
-        this.listener = listener;
-        doResolve(listener);
-        doWatch(listener);
+        synchronized (this) {
+            this.listener = listener;
+            this.started = true;
+        }
+        ResolutionHub.subscribe(consumerAPI, serviceKey, coalesceWindowMills, panicThreshold, snapshotStore,
+                subscriber);
+    }
+
+    /**
+     * 收到 {@link ResolutionHub} 发布的地址列表, 所有指向同一个服务的 resolver 收到的是同一份不可变列表
+     */
+    private synchronized void onAddressesChange(List<EquivalentAddressGroup> addresses, Attributes attributes) {
+        if (shutdown) {
+            return;
+        }
+        if (!interceptors.isEmpty()) {
+            try {
+                addresses = intercept(addresses);
+            } catch (RuntimeException e) {
+                LOG.error("[grpc-polaris] namespace:{} service:{} resolver interceptor fail", namespace, service, e);
+                listener.onError(Status.UNAVAILABLE.withDescription("resolver interceptor fail").withCause(e));
+                return;
+            }
+        }
+        notifyListener(listener, addresses, attributes);
     }
 
-    private void doResolve(Listener2 listener) {
+    /**
+     * 基于共享的地址列表执行 {@link ResolverInterceptor}, 不再单独从北极星拉取实例, 保留 panic 模式以及本地快照的结果;
+     * 拦截后仍然存在的实例复用原有的 {@link EquivalentAddressGroup}
+     */
+    private List<EquivalentAddressGroup> intercept(List<EquivalentAddressGroup> addresses) {
         ResolverContext resolverContext = ResolverContext.builder()
                 .context(context)
                 .targetUri(targetUri)
                 .sourceService(sourceService)
                 .build();
-        interceptors.forEach(resolverInterceptor ->resolverInterceptor.before(resolverContext));
-
-        GetHealthyInstancesRequest request = new GetHealthyInstancesRequest();
-        request.setNamespace(namespace);
-        request.setService(service);
-        InstancesResponse response = consumerAPI.getHealthyInstances(request);
-        LOG.info("[grpc-polaris] namespace:{} service:{} instance size:{}", namespace, service,
-                response.getInstances().length);
-
+        interceptors.forEach(resolverInterceptor -> resolverInterceptor.before(resolverContext));
+
+        Map<Instance, EquivalentAddressGroup> groups = new IdentityHashMap<>(addresses.size() * 2);
+        List<Instance> instances = new ArrayList<>(addresses.size());
+        for (EquivalentAddressGroup group : addresses) {
+            Instance instance = group.getAttributes().get(Common.INSTANCE_KEY);
+            groups.put(instance, group);
+            instances.add(instance);
+        }
+        InstancesResponse response = new InstancesResponse(new DefaultServiceInstances(serviceKey, instances));
         for (ResolverInterceptor interceptor : interceptors) {
             response = interceptor.after(resolverContext, response);
         }
 
-        LOG.info("[grpc-polaris] after namespace:{} service:{} instance size:{}", namespace, service,
-                response.getInstances().length);
-        notifyListener(listener, response);
-    }
-
-    private void doWatch(Listener2 listener) {
-        this.watcher = new ServiceChangeWatcher(listener);
-        this.consumerAPI.watchService(WatchServiceRequest.builder()
-                .namespace(namespace)
-                .service(service)
-                .listeners(Collections.singletonList(this.watcher))
-                .build());
-    }
-
-    private void notifyListener(Listener2 listener, InstancesResponse response) {
-        ServiceInstances serviceInstances = response.toServiceInstances();
+        LOG.debug("[grpc-polaris] namespace:{} service:{} instance size:{} after interceptor:{}", namespace, service,
+                instances.size(), response.getInstances().length);
         List<EquivalentAddressGroup> equivalentAddressGroups = new ArrayList<>();
-        for (Instance instance : serviceInstances.getInstances()) {
-            if (Objects.equals("grpc", instance.getProtocol())) {
-                equivalentAddressGroups.add(buildEquivalentAddressGroup(instance));
+        for (Instance instance : response.getInstances()) {
+            if (!Objects.equals("grpc", instance.getProtocol())) {
+                continue;
             }
+            EquivalentAddressGroup group = groups.get(instance);
+            equivalentAddressGroups.add(Objects.nonNull(group) ? group
+                    : ServiceWatch.buildEquivalentAddressGroup(instance, namespace, service));
         }
+        return Collections.unmodifiableList(equivalentAddressGroups);
+    }
 
-        Attributes.Builder builder = Attributes.newBuilder();
+    private void notifyListener(Listener2 listener, List<EquivalentAddressGroup> equivalentAddressGroups,
+            Attributes attributes) {
+        Attributes.Builder builder = attributes.toBuilder();
 
         if (sourceService != null) {
             builder.set(Common.SOURCE_SERVICE_INFO, sourceService);
@@ -170,38 +253,14 @@ public class PolarisNameResolver extends NameResolver {
 
     @Override
     public void shutdown() {
-        if (this.watcher != null) {
-            this.consumerAPI.unWatchService(UnWatchServiceRequest.UnWatchServiceRequestBuilder.anUnWatchServiceRequest()
-                    .listeners(Collections.singletonList(this.watcher))
-                    .namespace(namespace)
-                    .service(service)
-                    .build());
-        }
-    }
-
-    private class ServiceChangeWatcher implements ServiceListener {
-
-        private final Listener2 listener;
-
-        ServiceChangeWatcher(Listener2 listener) {
-            this.listener = listener;
-        }
-
-        @Override
-        public void onEvent(ServiceChangeEvent event) {
-            doResolve(listener);
+        synchronized (this) {
+            if (!started || shutdown) {
+                shutdown = true;
+                return;
+            }
+            shutdown = true;
         }
-
-    }
-
-    private EquivalentAddressGroup buildEquivalentAddressGroup(Instance instance) {
-        InetSocketAddress address = new InetSocketAddress(instance.getHost(), instance.getPort());
-        Attributes attributes = Attributes.newBuilder()
-                .set(Common.INSTANCE_KEY, instance)
-                .set(Common.TARGET_NAMESPACE_KEY, namespace)
-                .set(Common.TARGET_SERVICE_KEY, service)
-                .build();
-        return new EquivalentAddressGroup(address, attributes);
+        ResolutionHub.unsubscribe(consumerAPI, serviceKey, coalesceWindowMills, panicThreshold, snapshotStore,
+                subscriber);
     }
-
 }
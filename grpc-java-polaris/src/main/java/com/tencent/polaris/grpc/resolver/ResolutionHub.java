@@ -0,0 +1,208 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.resolver;
+
+import com.tencent.polaris.api.core.ConsumerAPI;
+import com.tencent.polaris.api.pojo.ServiceKey;
+import io.grpc.Attributes;
+import io.grpc.EquivalentAddressGroup;
+
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+/**
+ * 进程级别的服务发现订阅中心, 同一个 {@link ConsumerAPI} 下指向同一个 (namespace, service) 并且订阅参数相同的所有
+ * {@link PolarisNameResolver} 共享一个 {@link ServiceWatch}, 只拉取以及监听一次实例; 按照引用计数管理, 最后一个订阅者取消订阅时停止监听
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class ResolutionHub {
+
+    /**
+     * 实例变更事件的处理线程, 所有订阅共享, 避免在北极星 SDK 的回调线程上重建地址列表
+     */
+    private static final ScheduledExecutorService EVENT_EXECUTOR = new ScheduledThreadPoolExecutor(1, r -> {
+        Thread t = new Thread(r);
+        t.setDaemon(true);
+        t.setName("polaris-grpc-resolver");
+        return t;
+    });
+
+    private static final int FETCH_THREADS = 4;
+
+    private static final AtomicInteger FETCH_THREAD_ID = new AtomicInteger();
+
+    /**
+     * 从北极星拉取实例的线程池, 所有订阅共享; 拉取是阻塞调用, 不能放在事件线程上, 否则一个服务的拉取会阻塞其他服务的事件处理。
+     * 线程数有上限, 空闲时线程会退出
+     */
+    private static final ExecutorService FETCH_EXECUTOR = newFetchExecutor();
+
+    private static final Map<WatchKey, Entry> WATCHES = new HashMap<>();
+
+    private ResolutionHub() {
+    }
+
+    private static ExecutorService newFetchExecutor() {
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(FETCH_THREADS, FETCH_THREADS, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), r -> {
+                    Thread t = new Thread(r);
+                    t.setDaemon(true);
+                    t.setName("polaris-grpc-resolver-fetch-" + FETCH_THREAD_ID.incrementAndGet());
+                    return t;
+                });
+        executor.allowCoreThreadTimeOut(true);
+        return executor;
+    }
+
+    /**
+     * 订阅服务的地址变化, 已经有地址时订阅者会立即收到当前的地址列表, 之后每次地址发生变化时收到新的不可变地址列表。
+     * 只有 coalesceWindowMills、panicThreshold 以及快照目录都相同的订阅者才会共享同一个 {@link ServiceWatch}
+     *
+     * @param consumerAPI         {@link ConsumerAPI}
+     * @param serviceKey          被调服务
+     * @param coalesceWindowMills 事件合并窗口
+     * @param panicThreshold      panic 阈值 (百分比), 小于等于 0 时不开启
+     * @param snapshotStore       实例的本地快照, 可以为 null
+     * @param subscriber          订阅者, 同时收到地址列表以及服务级别的属性
+     */
+    static void subscribe(ConsumerAPI consumerAPI, ServiceKey serviceKey, long coalesceWindowMills,
+            int panicThreshold, InstanceSnapshotStore snapshotStore,
+            BiConsumer<List<EquivalentAddressGroup>, Attributes> subscriber) {
+        final WatchKey key = new WatchKey(consumerAPI, serviceKey, coalesceWindowMills, panicThreshold, snapshotStore);
+        final ServiceWatch watch;
+        synchronized (WATCHES) {
+            Entry entry = WATCHES.computeIfAbsent(key,
+                    k -> new Entry(new ServiceWatch(consumerAPI, serviceKey, EVENT_EXECUTOR, FETCH_EXECUTOR,
+                            coalesceWindowMills, panicThreshold, snapshotStore)));
+            entry.refCount++;
+            watch = entry.watch;
+            updateSubscribers(serviceKey);
+        }
+        try {
+            watch.subscribe(subscriber);
+        } catch (RuntimeException e) {
+            unsubscribe(consumerAPI, serviceKey, coalesceWindowMills, panicThreshold, snapshotStore, subscriber);
+            throw e;
+        }
+    }
+
+    /**
+     * 取消订阅, 参数需要与 {@link #subscribe} 时保持一致
+     */
+    static void unsubscribe(ConsumerAPI consumerAPI, ServiceKey serviceKey, long coalesceWindowMills,
+            int panicThreshold, InstanceSnapshotStore snapshotStore,
+            BiConsumer<List<EquivalentAddressGroup>, Attributes> subscriber) {
+        final WatchKey key = new WatchKey(consumerAPI, serviceKey, coalesceWindowMills, panicThreshold, snapshotStore);
+        final Entry entry;
+        final boolean last;
+        synchronized (WATCHES) {
+            entry = WATCHES.get(key);
+            if (Objects.isNull(entry)) {
+                return;
+            }
+            entry.refCount--;
+            last = entry.refCount == 0;
+            if (last) {
+                WATCHES.remove(key);
+            }
+            updateSubscribers(serviceKey);
+        }
+        entry.watch.unsubscribe(subscriber);
+        if (last) {
+            entry.watch.stop();
+        }
+    }
+
+    /**
+     * 同一个服务可能因为订阅参数不同存在多个 {@link ServiceWatch}, 统计所有订阅者, 需要持有 WATCHES 的锁
+     */
+    private static void updateSubscribers(ServiceKey serviceKey) {
+        int subscribers = 0;
+        for (Map.Entry<WatchKey, Entry> entry : WATCHES.entrySet()) {
+            if (Objects.equals(serviceKey, entry.getKey().serviceKey)) {
+                subscribers += entry.getValue().refCount;
+            }
+        }
+        NameResolverStats.of(serviceKey).updateSubscribers(subscribers);
+    }
+
+    private static final class Entry {
+
+        private final ServiceWatch watch;
+
+        private int refCount;
+
+        private Entry(ServiceWatch watch) {
+            this.watch = watch;
+        }
+    }
+
+    private static final class WatchKey {
+
+        private final ConsumerAPI consumerAPI;
+
+        private final ServiceKey serviceKey;
+
+        private final long coalesceWindowMills;
+
+        private final int panicThreshold;
+
+        private final Path snapshotDir;
+
+        private WatchKey(ConsumerAPI consumerAPI, ServiceKey serviceKey, long coalesceWindowMills, int panicThreshold,
+                InstanceSnapshotStore snapshotStore) {
+            this.consumerAPI = consumerAPI;
+            this.serviceKey = serviceKey;
+            this.coalesceWindowMills = coalesceWindowMills;
+            this.panicThreshold = panicThreshold;
+            this.snapshotDir = Objects.isNull(snapshotStore) ? null : snapshotStore.getDir();
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof WatchKey)) {
+                return false;
+            }
+            WatchKey watchKey = (WatchKey) o;
+            return consumerAPI == watchKey.consumerAPI && Objects.equals(serviceKey, watchKey.serviceKey)
+                    && coalesceWindowMills == watchKey.coalesceWindowMills
+                    && panicThreshold == watchKey.panicThreshold
+                    && Objects.equals(snapshotDir, watchKey.snapshotDir);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * System.identityHashCode(consumerAPI) + Objects.hashCode(serviceKey))
+                    + Objects.hash(coalesceWindowMills, panicThreshold, snapshotDir);
+        }
+    }
+}
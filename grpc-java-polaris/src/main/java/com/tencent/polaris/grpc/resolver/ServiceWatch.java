@@ -0,0 +1,613 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.resolver;
+
+import com.tencent.polaris.api.core.ConsumerAPI;
+import com.tencent.polaris.api.listener.ServiceListener;
+import com.tencent.polaris.api.pojo.Instance;
+import com.tencent.polaris.api.pojo.ServiceChangeEvent;
+import com.tencent.polaris.api.pojo.ServiceKey;
+import com.tencent.polaris.api.rpc.GetAllInstancesRequest;
+import com.tencent.polaris.api.rpc.GetHealthyInstancesRequest;
+import com.tencent.polaris.api.rpc.InstancesResponse;
+import com.tencent.polaris.api.rpc.UnWatchServiceRequest;
+import com.tencent.polaris.api.rpc.WatchServiceRequest;
+import com.tencent.polaris.api.utils.StringUtils;
+import com.tencent.polaris.grpc.util.Common;
+import io.grpc.Attributes;
+import io.grpc.EquivalentAddressGroup;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * 某一个 (namespace, service) 的实例订阅, 由 {@link ResolutionHub} 管理, 被所有指向该服务的 {@link PolarisNameResolver} 共享。
+ * 只会拉取以及监听一次实例, 每次地址发生变化时向所有订阅者发布同一份不可变的地址列表。
+ * <p>
+ * 访问北极星的阻塞调用都在拉取线程池上执行, 不持有锁; 拉取结果、实例变更事件以及发布都在共享的事件线程上串行处理
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+final class ServiceWatch implements ServiceListener {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceWatch.class);
+
+    private static final long MIN_RETRY_DELAY_MILLS = 1000;
+
+    private static final long MAX_RETRY_DELAY_MILLS = 30000;
+
+    private static final Attributes PANIC_ATTRIBUTES = Attributes.newBuilder()
+            .set(Common.PANIC_MODE_KEY, true)
+            .build();
+
+    private final ConsumerAPI consumerAPI;
+
+    private final String namespace;
+
+    private final String service;
+
+    private final ScheduledExecutorService executor;
+
+    /**
+     * 执行 getAllInstances / watchService 等阻塞调用的线程池, 避免一个服务的拉取阻塞其他服务的事件处理
+     */
+    private final Executor fetchExecutor;
+
+    /**
+     * 事件合并窗口的长度, 单位毫秒, 小于等于 0 时不合并
+     */
+    private final long coalesceWindowMills;
+
+    /**
+     * panic 阈值, 健康实例占比 (百分比) 低于该值时所有未隔离的实例都参与负载均衡, 小于等于 0 时不开启
+     */
+    private final int panicThreshold;
+
+    private final NameResolverStats stats;
+
+    private final ServiceKey serviceKey;
+
+    /**
+     * 实例的本地快照, 没有开启快照时为 null
+     */
+    private final InstanceSnapshotStore snapshotStore;
+
+    private final List<BiConsumer<List<EquivalentAddressGroup>, Attributes>> subscribers =
+            new CopyOnWriteArrayList<>();
+
+    /**
+     * 最近一次发布的地址, instance id -> {@link ResolvedAddress}, 只在持有锁时访问
+     */
+    private Map<String, ResolvedAddress> addresses = new LinkedHashMap<>();
+
+    /**
+     * 最近一次发布的地址列表, 不可变
+     */
+    private List<EquivalentAddressGroup> snapshot;
+
+    /**
+     * 与地址列表一起发布的服务级别属性, 例如是否处于 panic 模式
+     */
+    private Attributes attributes = Attributes.EMPTY;
+
+    private boolean panic;
+
+    /**
+     * 全量解析的结果中包含不健康的实例, 说明 SDK 做了全死全活的兜底处理, 此时不能增量计算
+     */
+    private boolean degraded;
+
+    private boolean started;
+
+    private boolean watching;
+
+    /**
+     * 正在拉取线程池上拉取实例, 同一时间只有一次拉取
+     */
+    private boolean fetching;
+
+    /**
+     * 拉取期间收到了实例变更事件, 拉取结果可能已经过期, 需要在拉取完成后重新拉取
+     */
+    private boolean refetch;
+
+    /**
+     * 当前的地址来自本地快照, 还没有从北极星拉取成功过
+     */
+    private boolean fromSnapshot;
+
+    private long retryDelayMills = MIN_RETRY_DELAY_MILLS;
+
+    private boolean stopped;
+
+    private boolean windowOpen;
+
+    private boolean pendingPush;
+
+    private boolean pendingFullResolve;
+
+    private ScheduledFuture<?> windowFuture;
+
+    ServiceWatch(ConsumerAPI consumerAPI, ServiceKey serviceKey, ScheduledExecutorService executor,
+            Executor fetchExecutor, long coalesceWindowMills, int panicThreshold, InstanceSnapshotStore snapshotStore) {
+        this.consumerAPI = consumerAPI;
+        this.serviceKey = serviceKey;
+        this.namespace = serviceKey.getNamespace();
+        this.service = serviceKey.getService();
+        this.executor = executor;
+        this.fetchExecutor = fetchExecutor;
+        this.coalesceWindowMills = coalesceWindowMills;
+        this.panicThreshold = panicThreshold;
+        this.stats = NameResolverStats.of(serviceKey);
+        this.snapshotStore = snapshotStore;
+    }
+
+    /**
+     * 添加订阅者, 第一个订阅者会触发异步的拉取以及监听, 不会在调用线程上访问北极星。
+     * 已经有地址 (包括本地快照中的地址) 时订阅者会立即收到当前的地址列表, 否则等待拉取完成后的发布
+     *
+     * @param subscriber 订阅者, 在发布地址的线程上回调
+     */
+    synchronized void subscribe(BiConsumer<List<EquivalentAddressGroup>, Attributes> subscriber) {
+        subscribers.add(subscriber);
+        if (!started) {
+            started = true;
+            start();
+        } else if (Objects.nonNull(snapshot)) {
+            notifySubscriber(subscriber);
+        }
+    }
+
+    private void start() {
+        List<Instance> instances = Objects.isNull(snapshotStore) ? null : snapshotStore.load(serviceKey);
+        if (Objects.nonNull(instances)) {
+            LOG.info("[grpc-polaris] namespace:{} service:{} restore instance size:{} from local snapshot",
+                    namespace, service, instances.size());
+            fromSnapshot = true;
+            // 快照中保存了实例的健康以及隔离状态, 与拉取到的实例一样重新选择, 恢复 panic 模式以及全死全活的状态
+            addresses = select(instances);
+            publish();
+        }
+        fetchAsync();
+    }
+
+    /**
+     * 在拉取线程池上从北极星拉取实例, 需要持有锁; 已经在拉取时只标记需要重新拉取
+     */
+    private void fetchAsync() {
+        if (stopped) {
+            return;
+        }
+        if (fetching) {
+            refetch = true;
+            return;
+        }
+        fetching = true;
+        refetch = false;
+        fetchExecutor.execute(this::fetch);
+    }
+
+    /**
+     * 在拉取线程池上执行, 不持有锁。先开始监听再拉取, 保证拉取之后的变化都能收到事件; 结果交给事件线程处理
+     */
+    private void fetch() {
+        synchronized (this) {
+            if (stopped) {
+                return;
+            }
+        }
+        try {
+            if (!isWatching()) {
+                watch();
+            }
+            InstancesResponse response = query();
+            executor.execute(() -> onFetched(response));
+        } catch (RuntimeException e) {
+            executor.execute(() -> onFetchFail(e));
+        }
+    }
+
+    private synchronized void onFetched(InstancesResponse response) {
+        fetching = false;
+        if (stopped) {
+            return;
+        }
+        retryDelayMills = MIN_RETRY_DELAY_MILLS;
+        applyInstances(response);
+        if (refetch) {
+            fetchAsync();
+        }
+    }
+
+    /**
+     * 拉取失败时继续使用当前的地址, 按照指数退避重试
+     */
+    private synchronized void onFetchFail(RuntimeException e) {
+        fetching = false;
+        if (stopped) {
+            return;
+        }
+        LOG.warn("[grpc-polaris] namespace:{} service:{} fetch instances fail, keep {} instances, retry after {}ms",
+                namespace, service, addresses.size(), retryDelayMills, e);
+        executor.schedule(this::retry, retryDelayMills, TimeUnit.MILLISECONDS);
+        retryDelayMills = Math.min(retryDelayMills * 2, MAX_RETRY_DELAY_MILLS);
+    }
+
+    private synchronized void retry() {
+        fetchAsync();
+    }
+
+    private synchronized boolean isWatching() {
+        return watching;
+    }
+
+    private void watch() {
+        consumerAPI.watchService(WatchServiceRequest.builder()
+                .namespace(namespace)
+                .service(service)
+                .listeners(Collections.singletonList(this))
+                .build());
+        boolean unwatch;
+        synchronized (this) {
+            watching = true;
+            // 监听期间已经停止, stop 看不到 watching, 由这里取消监听
+            unwatch = stopped;
+        }
+        if (unwatch) {
+            unwatch();
+        }
+    }
+
+    synchronized void unsubscribe(BiConsumer<List<EquivalentAddressGroup>, Attributes> subscriber) {
+        subscribers.remove(subscriber);
+    }
+
+    void stop() {
+        synchronized (this) {
+            stopped = true;
+            if (Objects.nonNull(windowFuture)) {
+                windowFuture.cancel(false);
+            }
+            if (!watching) {
+                return;
+            }
+        }
+        unwatch();
+    }
+
+    private void unwatch() {
+        consumerAPI.unWatchService(UnWatchServiceRequest.UnWatchServiceRequestBuilder.anUnWatchServiceRequest()
+                .listeners(Collections.singletonList(this))
+                .namespace(namespace)
+                .service(service)
+                .build());
+    }
+
+    @Override
+    public void onEvent(ServiceChangeEvent event) {
+        stats.recordEventReceived();
+        executor.execute(() -> onServiceChange(event));
+    }
+
+    /**
+     * 在事件线程上处理实例变更事件。窗口之外的第一个事件立即生效, 之后窗口内的事件只更新地址列表,
+     * 在窗口结束时合并为一次发布; 窗口结束时如果还有变化, 则继续开启下一个窗口
+     */
+    private synchronized void onServiceChange(ServiceChangeEvent event) {
+        if (stopped) {
+            return;
+        }
+        if (fetching) {
+            // 拉取结果可能早于这次变化, 拉取完成后重新拉取
+            refetch = true;
+            return;
+        }
+        applyChange(event);
+        if (windowOpen) {
+            return;
+        }
+        flush();
+        openWindow();
+    }
+
+    private synchronized void onWindowClosed() {
+        windowOpen = false;
+        if (stopped || (!pendingPush && !pendingFullResolve)) {
+            return;
+        }
+        flush();
+        openWindow();
+    }
+
+    private void openWindow() {
+        if (coalesceWindowMills <= 0) {
+            return;
+        }
+        windowOpen = true;
+        windowFuture = executor.schedule(this::onWindowClosed, coalesceWindowMills, TimeUnit.MILLISECONDS);
+    }
+
+    private void flush() {
+        if (pendingFullResolve) {
+            pendingFullResolve = false;
+            fetchAsync();
+        } else if (pendingPush) {
+            publish();
+        }
+    }
+
+    private InstancesResponse query() {
+        if (panicThreshold > 0) {
+            // 需要根据全部实例计算健康实例的占比
+            GetAllInstancesRequest request = new GetAllInstancesRequest();
+            request.setNamespace(namespace);
+            request.setService(service);
+            return consumerAPI.getAllInstances(request);
+        }
+        GetHealthyInstancesRequest request = new GetHealthyInstancesRequest();
+        request.setNamespace(namespace);
+        request.setService(service);
+        return consumerAPI.getHealthyInstances(request);
+    }
+
+    /**
+     * 使用全量拉取的结果替换地址列表, 在事件线程上执行
+     */
+    private void applyInstances(InstancesResponse response) {
+        stats.recordFullResolution();
+        LOG.info("[grpc-polaris] namespace:{} service:{} instance size:{}", namespace, service,
+                response.getInstances().length);
+
+        Map<String, ResolvedAddress> newAddresses = select(response.toServiceInstances().getInstances());
+        // 第一次解析时即使没有实例也需要发布; 增量更新过但是还没有发布的地址也需要发布
+        boolean changed = Objects.isNull(snapshot) || pendingPush || fromSnapshot
+                || !sameAddresses(addresses, newAddresses);
+        this.addresses = newAddresses;
+        this.fromSnapshot = false;
+        if (changed) {
+            publish();
+        }
+    }
+
+    /**
+     * 根据 {@link ServiceChangeEvent} 中的实例变更增量更新地址列表, 只有实例发生变化的地址才会重新构建
+     * {@link EquivalentAddressGroup}, 地址以及属性都没有变化时不会发布
+     */
+    private void applyChange(ServiceChangeEvent event) {
+        // 已经需要全量拉取, 全量拉取会包含这次的变化
+        if (pendingFullResolve) {
+            return;
+        }
+        if (panicThreshold > 0) {
+            applyAllInstances(event);
+            return;
+        }
+        if (degraded || Objects.isNull(event.getAddInstances()) || Objects.isNull(event.getUpdateInstances())
+                || Objects.isNull(event.getDeleteInstances())) {
+            pendingFullResolve = true;
+            return;
+        }
+
+        boolean changed = false;
+        for (Instance instance : event.getDeleteInstances()) {
+            changed |= addresses.remove(instance.getId()) != null;
+        }
+        for (ServiceChangeEvent.OneInstanceUpdate update : event.getUpdateInstances()) {
+            changed |= apply(update.getAfter());
+        }
+        for (Instance instance : event.getAddInstances()) {
+            changed |= apply(instance);
+        }
+        stats.recordIncrementalUpdate();
+
+        // 没有健康实例时, 交给 SDK 的全死全活策略处理
+        if (addresses.isEmpty() && Objects.nonNull(event.getAllInstances()) && !event.getAllInstances().isEmpty()) {
+            pendingFullResolve = true;
+            return;
+        }
+        LOG.debug("[grpc-polaris] namespace:{} service:{} apply change, add:{} update:{} delete:{} changed:{}",
+                namespace, service, event.getAddInstances().size(), event.getUpdateInstances().size(),
+                event.getDeleteInstances().size(), changed);
+        pendingPush |= changed;
+    }
+
+    /**
+     * 开启 panic 阈值时需要基于全部实例判断是否进入 panic 模式, 直接使用事件中变更后的全部实例重新选择地址,
+     * 不需要从北极星重新拉取
+     */
+    private void applyAllInstances(ServiceChangeEvent event) {
+        if (Objects.isNull(event.getAllInstances())) {
+            pendingFullResolve = true;
+            return;
+        }
+        Map<String, ResolvedAddress> selected = select(event.getAllInstances());
+        stats.recordIncrementalUpdate();
+        pendingPush |= !sameAddresses(addresses, selected);
+        addresses = selected;
+    }
+
+    /**
+     * 从实例列表中选择参与负载均衡的地址。没有开启 panic 阈值时, 实例列表来自 getHealthyInstances;
+     * 开启时实例列表是全部实例, 健康实例的占比低于阈值时选择全部未隔离的实例, 避免流量全部压到剩余的健康实例上
+     */
+    private Map<String, ResolvedAddress> select(List<Instance> instances) {
+        Map<String, ResolvedAddress> selected = new LinkedHashMap<>();
+        if (panicThreshold <= 0) {
+            boolean degraded = false;
+            for (Instance instance : instances) {
+                if (Objects.equals("grpc", instance.getProtocol())) {
+                    selected.put(instance.getId(), resolve(instance));
+                    degraded |= !isAvailable(instance);
+                }
+            }
+            this.degraded = degraded;
+            return selected;
+        }
+
+        int total = 0;
+        int healthy = 0;
+        for (Instance instance : instances) {
+            if (isEligible(instance)) {
+                total++;
+                if (instance.isHealthy()) {
+                    healthy++;
+                }
+            }
+        }
+        updatePanic(total > 0 && healthy * 100L < (long) total * panicThreshold, healthy, total);
+        for (Instance instance : instances) {
+            if (panic ? isEligible(instance) : isAvailable(instance)) {
+                selected.put(instance.getId(), resolve(instance));
+            }
+        }
+        return selected;
+    }
+
+    private void updatePanic(boolean panic, int healthy, int total) {
+        if (this.panic == panic) {
+            return;
+        }
+        this.panic = panic;
+        this.attributes = panic ? PANIC_ATTRIBUTES : Attributes.EMPTY;
+        pendingPush = true;
+        stats.recordPanicMode(panic);
+        if (panic) {
+            LOG.warn("[grpc-polaris] namespace:{} service:{} enter panic mode, healthy:{} total:{} threshold:{}%",
+                    namespace, service, healthy, total, panicThreshold);
+        } else {
+            LOG.info("[grpc-polaris] namespace:{} service:{} exit panic mode, healthy:{} total:{} threshold:{}%",
+                    namespace, service, healthy, total, panicThreshold);
+        }
+    }
+
+    private boolean apply(Instance instance) {
+        if (!isAvailable(instance)) {
+            return addresses.remove(instance.getId()) != null;
+        }
+        ResolvedAddress resolved = resolve(instance);
+        return addresses.put(instance.getId(), resolved) != resolved;
+    }
+
+    /**
+     * 与 {@link ConsumerAPI#getHealthyInstances(GetHealthyInstancesRequest)} 的过滤条件保持一致
+     */
+    private static boolean isAvailable(Instance instance) {
+        return isEligible(instance) && instance.isHealthy();
+    }
+
+    private static boolean isEligible(Instance instance) {
+        return Objects.equals("grpc", instance.getProtocol()) && !instance.isIsolated() && instance.getWeight() > 0;
+    }
+
+    /**
+     * 实例的 id 以及 revision 都没有变化时复用之前构建的 {@link EquivalentAddressGroup}
+     */
+    private ResolvedAddress resolve(Instance instance) {
+        ResolvedAddress old = addresses.get(instance.getId());
+        if (Objects.nonNull(old) && old.matches(instance)) {
+            return old;
+        }
+        return new ResolvedAddress(instance, buildEquivalentAddressGroup(instance, namespace, service));
+    }
+
+    private static boolean sameAddresses(Map<String, ResolvedAddress> current, Map<String, ResolvedAddress> update) {
+        if (current.size() != update.size()) {
+            return false;
+        }
+        Iterator<ResolvedAddress> iterator = current.values().iterator();
+        for (ResolvedAddress address : update.values()) {
+            if (iterator.next() != address) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void publish() {
+        List<EquivalentAddressGroup> equivalentAddressGroups = new ArrayList<>(addresses.size());
+        List<Instance> instances = new ArrayList<>(addresses.size());
+        for (ResolvedAddress address : addresses.values()) {
+            equivalentAddressGroups.add(address.group);
+            instances.add(address.instance);
+        }
+        snapshot = Collections.unmodifiableList(equivalentAddressGroups);
+        pendingPush = false;
+        stats.recordResultPushed();
+        for (BiConsumer<List<EquivalentAddressGroup>, Attributes> subscriber : subscribers) {
+            notifySubscriber(subscriber);
+        }
+        // 只保存从北极星拉取到的实例, 写文件放到事件线程上, 不阻塞发布
+        if (Objects.nonNull(snapshotStore) && !fromSnapshot) {
+            executor.execute(() -> snapshotStore.save(serviceKey, instances));
+        }
+    }
+
+    /**
+     * 单个订阅者处理失败不影响其他订阅者以及后续的发布
+     */
+    private void notifySubscriber(BiConsumer<List<EquivalentAddressGroup>, Attributes> subscriber) {
+        try {
+            subscriber.accept(snapshot, attributes);
+        } catch (RuntimeException e) {
+            LOG.error("[grpc-polaris] namespace:{} service:{} notify subscriber fail", namespace, service, e);
+        }
+    }
+
+    static EquivalentAddressGroup buildEquivalentAddressGroup(Instance instance, String namespace, String service) {
+        InetSocketAddress address = new InetSocketAddress(instance.getHost(), instance.getPort());
+        Attributes attributes = Attributes.newBuilder()
+                .set(Common.INSTANCE_KEY, instance)
+                .set(Common.TARGET_NAMESPACE_KEY, namespace)
+                .set(Common.TARGET_SERVICE_KEY, service)
+                .build();
+        return new EquivalentAddressGroup(address, attributes);
+    }
+
+    private static final class ResolvedAddress {
+
+        private final Instance instance;
+
+        private final String revision;
+
+        private final EquivalentAddressGroup group;
+
+        private ResolvedAddress(Instance instance, EquivalentAddressGroup group) {
+            this.instance = instance;
+            this.revision = instance.getRevision();
+            this.group = group;
+        }
+
+        private boolean matches(Instance instance) {
+            return StringUtils.isNotBlank(revision) && Objects.equals(revision, instance.getRevision());
+        }
+    }
+}
@@ -384,8 +384,12 @@ public final class PolarisGrpcServerBuilder extends ServerBuilder<PolarisGrpcSer
         for (ServerInterceptor interceptor : interceptors) {
             this.builder.intercept(interceptor);
         }
+        PolarisServerStreamTracerFactory tracerFactory = new PolarisServerStreamTracerFactory();
+        this.builder.addStreamTracerFactory(tracerFactory);
 
-        PolarisGrpcServer server = new PolarisGrpcServer(this, context, this.builder.build());
+        Server grpcServer = this.builder.build();
+        tracerFactory.registerServices(grpcServer.getServices());
+        PolarisGrpcServer server = new PolarisGrpcServer(this, context, grpcServer);
         server.setDelayRegister(delayRegister);
         server.setMaxWaitDuration(maxWaitDuration);
 
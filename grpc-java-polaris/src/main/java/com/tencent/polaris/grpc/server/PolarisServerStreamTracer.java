@@ -0,0 +1,88 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.server;
+
+import com.tencent.polaris.grpc.metrics.ServerCallMetrics;
+import io.grpc.ServerStreamTracer;
+import io.grpc.Status;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 服务端每次调用的 tracer, 区分两段耗时
+ * 1. 排队耗时, 从 stream 创建到业务线程池开始执行调用 ({@link #serverCallStarted(ServerCallInfo)})
+ * 2. 处理耗时, 从业务线程池开始执行调用到 stream 关闭
+ * 同时记录请求以及响应的网络传输字节数
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class PolarisServerStreamTracer extends ServerStreamTracer {
+
+    private final ServerCallMetrics metrics;
+
+    private final long createNanos = System.nanoTime();
+
+    private volatile long startedNanos;
+
+    private volatile long inboundWireSize;
+
+    private volatile long outboundWireSize;
+
+    PolarisServerStreamTracer(ServerCallMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void serverCallStarted(ServerCallInfo<?, ?> callInfo) {
+        final long now = System.nanoTime();
+        startedNanos = now;
+        metrics.recordQueueing(TimeUnit.NANOSECONDS.toMicros(now - createNanos));
+    }
+
+    @Override
+    public void inboundWireSize(long bytes) {
+        inboundWireSize += bytes;
+    }
+
+    @Override
+    public void outboundWireSize(long bytes) {
+        outboundWireSize += bytes;
+    }
+
+    @Override
+    public void streamClosed(Status status) {
+        // 调用还没有开始执行就被关闭, 例如方法不存在或者客户端提前取消, 整个耗时都计入处理耗时
+        long started = startedNanos;
+        long from = started == 0 ? createNanos : started;
+        metrics.recordCall(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - from), inboundWireSize,
+                outboundWireSize);
+    }
+
+    /**
+     * @return 请求接收的网络传输字节数
+     */
+    public long getInboundWireSize() {
+        return inboundWireSize;
+    }
+
+    /**
+     * @return 响应发送的网络传输字节数
+     */
+    public long getOutboundWireSize() {
+        return outboundWireSize;
+    }
+}
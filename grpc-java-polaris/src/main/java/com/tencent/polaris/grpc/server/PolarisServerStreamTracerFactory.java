@@ -0,0 +1,66 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.server;
+
+import com.tencent.polaris.grpc.metrics.ServerMetrics;
+import com.tencent.polaris.grpc.util.Common;
+import io.grpc.Metadata;
+import io.grpc.ServerMethodDefinition;
+import io.grpc.ServerServiceDefinition;
+import io.grpc.ServerStreamTracer;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * 服务端调用统计, 由 {@link PolarisGrpcServerBuilder#build()} 自动注册, 统计结果参见 {@link ServerMetrics}
+ *
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class PolarisServerStreamTracerFactory extends ServerStreamTracer.Factory {
+
+    /**
+     * 已注册的方法, 方法名来自请求, 未注册的方法统一按照 {@link ServerMetrics#OTHER} 统计, 为 null 时不做过滤
+     */
+    private volatile Set<String> methods;
+
+    /**
+     * 设置服务端已注册的服务, 需要在服务端开始处理请求之前调用
+     *
+     * @param services 已注册的服务
+     */
+    public void registerServices(List<ServerServiceDefinition> services) {
+        Set<String> methods = new HashSet<>();
+        for (ServerServiceDefinition service : services) {
+            for (ServerMethodDefinition<?, ?> method : service.getMethods()) {
+                methods.add(method.getMethodDescriptor().getFullMethodName());
+            }
+        }
+        this.methods = Collections.unmodifiableSet(methods);
+    }
+
+    @Override
+    public ServerStreamTracer newServerStreamTracer(String fullMethodName, Metadata headers) {
+        Set<String> methods = this.methods;
+        String method = Objects.isNull(methods) || methods.contains(fullMethodName)
+                ? fullMethodName : ServerMetrics.OTHER;
+        return new PolarisServerStreamTracer(ServerMetrics.of(method,
+                headers.get(Common.CALLER_NAMESPACE_KEY), headers.get(Common.CALLER_SERVICE_KEY)));
+    }
+}
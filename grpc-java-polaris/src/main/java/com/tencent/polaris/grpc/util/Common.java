@@ -20,6 +20,7 @@ import com.tencent.polaris.api.pojo.Instance;
 import com.tencent.polaris.api.pojo.ServiceInfo;
 import com.tencent.polaris.api.pojo.ServiceKey;
 import io.grpc.Attributes.Key;
+import io.grpc.CallOptions;
 import io.grpc.Metadata;
 
 /**
@@ -51,4 +52,15 @@ public class Common {
      */
     public static final Key<String> TARGET_NAMESPACE_KEY = Key.create("POLARIS_SOURCE_NAMESPACE");
 
+    /**
+     * {@link io.grpc.NameResolver.ResolutionResult} 的 {@link io.grpc.Attributes} 中存放被调服务是否处于 panic 模式,
+     * 处于 panic 模式时不健康的实例也参与路由以及负载均衡
+     */
+    public static final Key<Boolean> PANIC_MODE_KEY = Key.create("POLARIS_PANIC_MODE");
+
+    /**
+     * {@link CallOptions} 中存放一致性哈希负载均衡使用的哈希 key, 优先级高于配置的请求头
+     */
+    public static final CallOptions.Key<String> HASH_KEY = CallOptions.Key.create("polaris.hash.key");
+
 }
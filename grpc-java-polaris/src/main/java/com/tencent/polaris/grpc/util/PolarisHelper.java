@@ -50,20 +50,25 @@ public class PolarisHelper {
      */
     private static PolarisLabelsInject LABELS_INJECT;
 
+    /**
+     * 没有自定义实现时使用的 PolarisLabelsInject, 不修改任何标签
+     */
+    private static final PolarisLabelsInject DEFAULT_LABELS_INJECT = new PolarisLabelsInject() {
+        @Override
+        public Set<RouteArgument> modifyRoute(Set<RouteArgument> arguments) {
+            return arguments;
+        }
+
+        @Override
+        public Set<Argument> modifyRateLimit(Set<Argument> arguments) {
+            return arguments;
+        }
+    };
+
     static {
         ServiceLoader<PolarisLabelsInject> serviceLoader = ServiceLoader.load(PolarisLabelsInject.class);
         Iterator<PolarisLabelsInject> iterator = serviceLoader.iterator();
-        LABELS_INJECT = Optional.ofNullable(iterator.hasNext() ? iterator.next() : null).orElse(new PolarisLabelsInject() {
-            @Override
-            public Set<RouteArgument> modifyRoute(Set<RouteArgument> arguments) {
-                return arguments;
-            }
-
-            @Override
-            public Set<Argument> modifyRateLimit(Set<Argument> arguments) {
-                return arguments;
-            }
-        });
+        LABELS_INJECT = Optional.ofNullable(iterator.hasNext() ? iterator.next() : null).orElse(DEFAULT_LABELS_INJECT);
     }
 
     /**
@@ -79,6 +84,13 @@ public class PolarisHelper {
         return LABELS_INJECT;
     }
 
+    /**
+     * @return 是否没有注入自定义的 PolarisLabelsInject, 此时请求的标签不会被修改
+     */
+    public static boolean isDefaultLabelsInject() {
+        return LABELS_INJECT == DEFAULT_LABELS_INJECT;
+    }
+
     public static ClientInterceptor buildMetadataClientInterceptor() {
         return new MetadataClientInterceptor(s -> true);
     }
@@ -105,6 +117,8 @@ public class PolarisHelper {
         private BiFunction<QuotaResponse, String, Status> rateLimitCallback = (quotaResponse, method) ->
                 Status.UNAVAILABLE.withDescription("rate-limit exceeded (server side)");
 
+        private boolean quotaLease;
+
         private PolarisRateLimitInterceptorBuilder() {
         }
 
@@ -120,9 +134,21 @@ public class PolarisHelper {
             return this;
         }
 
+        /**
+         * 分布式限流规则是否批量预申请配额, 请求优先从本地租约中扣减, 减少与限流服务端的交互; 默认关闭
+         *
+         * @param quotaLease 是否开启
+         * @return {@link PolarisRateLimitInterceptorBuilder}
+         */
+        public PolarisRateLimitInterceptorBuilder quotaLease(boolean quotaLease) {
+            this.quotaLease = quotaLease;
+            return this;
+        }
+
         public PolarisRateLimitServerInterceptor build() {
             PolarisRateLimitServerInterceptor polarisRateLimitInterceptor = new PolarisRateLimitServerInterceptor();
             polarisRateLimitInterceptor.setRateLimitCallback(this.rateLimitCallback);
+            polarisRateLimitInterceptor.setQuotaLeaseEnabled(this.quotaLease);
             return polarisRateLimitInterceptor;
         }
 
@@ -0,0 +1,180 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import com.tencent.polaris.api.core.ConsumerAPI;
+import com.tencent.polaris.api.pojo.DefaultInstance;
+import com.tencent.polaris.api.rpc.ServiceCallResult;
+import com.tencent.polaris.grpc.loadbalance.AsyncCallResultReporter.OverflowPolicy;
+import com.tencent.polaris.grpc.util.ClientCallInfo;
+import io.grpc.Status;
+import org.junit.Test;
+
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class AsyncCallResultReporterTest {
+
+    private final List<ServiceCallResult> results = new CopyOnWriteArrayList<>();
+
+    private volatile CountDownLatch blocker = new CountDownLatch(0);
+
+    private final ConsumerAPI consumerAPI = (ConsumerAPI) Proxy.newProxyInstance(
+            AsyncCallResultReporterTest.class.getClassLoader(), new Class<?>[]{ConsumerAPI.class}, (proxy, method, args) -> {
+                if ("updateServiceCallResult".equals(method.getName())) {
+                    blocker.await();
+                    results.add((ServiceCallResult) args[0]);
+                }
+                return null;
+            });
+
+    @Test
+    public void testWrapAround() {
+        AsyncCallResultReporter reporter = new AsyncCallResultReporter(8, OverflowPolicy.DROP, 0, false);
+        int port = 0;
+        for (int round = 0; round < 5; round++) {
+            for (int i = 0; i < 8; i++) {
+                assertTrue(reporter.report(callInfo(port++), Status.Code.OK, 0));
+            }
+            assertEquals(8, reporter.drain(Integer.MAX_VALUE));
+        }
+        assertEquals(40, reporter.getReported());
+        assertEquals(0, reporter.getDropped());
+        for (int i = 0; i < results.size(); i++) {
+            assertEquals(i, (int) results.get(i).getPort());
+        }
+    }
+
+    @Test
+    public void testDropWhenFull() {
+        AsyncCallResultReporter reporter = new AsyncCallResultReporter(8, OverflowPolicy.DROP, 0, false);
+        for (int i = 0; i < 8; i++) {
+            assertTrue(reporter.report(callInfo(i), Status.Code.OK, 0));
+        }
+        assertFalse(reporter.report(callInfo(8), Status.Code.OK, 0));
+        assertFalse(reporter.report(callInfo(9), Status.Code.UNAVAILABLE, 0));
+        assertEquals(2, reporter.getDropped());
+
+        // 取出一个之后可以再次写入
+        assertEquals(1, reporter.drain(1));
+        assertTrue(reporter.report(callInfo(10), Status.Code.OK, 0));
+        assertEquals(8, reporter.drain(Integer.MAX_VALUE));
+        assertEquals(10, (int) results.get(results.size() - 1).getPort());
+    }
+
+    @Test
+    public void testSampleAboveHighWatermark() {
+        AsyncCallResultReporter reporter = new AsyncCallResultReporter(8, OverflowPolicy.SAMPLE, 0, false);
+        // 容量 8, 超过 3/4 之后成功的调用结果按照采样率 0 全部丢弃
+        for (int i = 0; i < 6; i++) {
+            assertTrue(reporter.report(callInfo(i), Status.Code.OK, 0));
+        }
+        assertFalse(reporter.report(callInfo(6), Status.Code.OK, 0));
+        assertEquals(1, reporter.getSampledOut());
+
+        // 失败的调用结果总是写入, 队列满时丢弃
+        assertTrue(reporter.report(callInfo(7), Status.Code.UNAVAILABLE, 0));
+        assertTrue(reporter.report(callInfo(8), Status.Code.UNAVAILABLE, 0));
+        assertFalse(reporter.report(callInfo(9), Status.Code.UNAVAILABLE, 0));
+        assertEquals(1, reporter.getDropped());
+        assertEquals(8, reporter.drain(Integer.MAX_VALUE));
+
+        // 低于水位后成功的调用结果正常写入
+        assertTrue(reporter.report(callInfo(10), Status.Code.OK, 0));
+        assertEquals(1, reporter.getSampledOut());
+    }
+
+    @Test
+    public void testConcurrentProducers() throws Exception {
+        AsyncCallResultReporter reporter = new AsyncCallResultReporter(1 << 10, OverflowPolicy.DROP, 0, true);
+        int threads = 8;
+        int perThread = 20000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    for (int i = 0; i < perThread; i++) {
+                        reporter.report(callInfo(i), Status.Code.OK, 0);
+                    }
+                } catch (InterruptedException ignore) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        assertTrue(done.await(30, TimeUnit.SECONDS));
+        executor.shutdown();
+        reporter.close();
+
+        assertEquals((long) threads * perThread, reporter.getReported() + reporter.getDropped());
+        assertEquals(reporter.getReported(), results.size());
+    }
+
+    @Test
+    public void testDrainOnClose() throws Exception {
+        blocker = new CountDownLatch(1);
+        AsyncCallResultReporter reporter = new AsyncCallResultReporter(1 << 12, OverflowPolicy.DROP, 0, true);
+        // 后台线程阻塞在第一次上报上, 其余的调用结果超过一个批次, 只能在关闭时取出
+        int total = 3000;
+        for (int i = 0; i < total; i++) {
+            assertTrue(reporter.report(callInfo(i), Status.Code.OK, 0));
+        }
+        Thread releaser = new Thread(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException ignore) {
+                Thread.currentThread().interrupt();
+            }
+            blocker.countDown();
+        });
+        releaser.start();
+        reporter.close();
+
+        assertEquals(total, reporter.getReported());
+        assertEquals(total, results.size());
+    }
+
+    private ClientCallInfo callInfo(int port) {
+        DefaultInstance instance = new DefaultInstance();
+        instance.setHost("127.0.0.1");
+        instance.setPort(port);
+        return ClientCallInfo.builder()
+                .consumerAPI(consumerAPI)
+                .instance(instance)
+                .method("SayHello")
+                .targetNamespace("default")
+                .targetService("polaris.Hello")
+                .build();
+    }
+}
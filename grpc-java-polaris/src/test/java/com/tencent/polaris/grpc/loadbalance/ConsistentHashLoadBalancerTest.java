@@ -0,0 +1,78 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import com.tencent.polaris.api.pojo.DefaultInstance;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class ConsistentHashLoadBalancerTest {
+
+    private static final int KEYS = 10000;
+
+    @Test
+    public void testRingHashRemoveInstance() {
+        PolarisSubChannel[] channels = channels(10);
+        LoadBalanceConfig config = new LoadBalanceConfig();
+        RingHashLoadBalancer before = new RingHashLoadBalancer(channels, config);
+        RingHashLoadBalancer after = new RingHashLoadBalancer(Arrays.copyOf(channels, 9), config);
+
+        for (int i = 0; i < KEYS; i++) {
+            long hash = ConsistentHashLoadBalancer.hash("user-" + i);
+            PolarisSubChannel owner = before.select(hash);
+            // 只有原来落在被移除实例上的 key 会迁移
+            if (owner != channels[9]) {
+                assertEquals(owner, after.select(hash));
+            }
+        }
+    }
+
+    @Test
+    public void testMaglevHonorWeight() {
+        PolarisSubChannel[] channels = channels(2);
+        ((DefaultInstance) channels[0].getInstance()).setWeight(300);
+        MaglevLoadBalancer balancer = new MaglevLoadBalancer(channels, new LoadBalanceConfig());
+
+        int hit = 0;
+        for (int i = 0; i < KEYS; i++) {
+            if (balancer.select(ConsistentHashLoadBalancer.hash("user-" + i)) == channels[0]) {
+                hit++;
+            }
+        }
+        assertTrue(hit > KEYS * 0.7 && hit < KEYS * 0.8, "hit=" + hit);
+    }
+
+    private static PolarisSubChannel[] channels(int size) {
+        PolarisSubChannel[] channels = new PolarisSubChannel[size];
+        for (int i = 0; i < size; i++) {
+            DefaultInstance instance = new DefaultInstance();
+            instance.setId("instance-" + i);
+            instance.setHost("127.0.0." + i);
+            instance.setPort(8000 + i);
+            instance.setWeight(100);
+            channels[i] = new PolarisSubChannel(instance);
+        }
+        return channels;
+    }
+}
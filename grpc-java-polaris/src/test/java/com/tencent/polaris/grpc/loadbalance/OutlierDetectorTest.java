@@ -0,0 +1,184 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import com.tencent.polaris.api.pojo.DefaultInstance;
+import io.grpc.Status;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class OutlierDetectorTest {
+
+    private static final long BASE_EJECTION_NANOS = TimeUnit.SECONDS.toNanos(30);
+
+    @Test
+    public void testConsecutiveFailuresEjectAndRecover() {
+        List<PolarisSubChannel> channels = channels(10);
+        OutlierDetector detector = new OutlierDetector(new OutlierDetectionConfig());
+        PolarisSubChannel bad = channels.get(3);
+        report(bad, Status.UNAVAILABLE, 5);
+
+        long now = System.nanoTime();
+        assertTrue(detector.detect(channels, now));
+        assertTrue(bad.isEjected());
+
+        assertFalse(detector.detect(channels, now + BASE_EJECTION_NANOS - 1));
+        assertTrue(bad.isEjected());
+
+        assertTrue(detector.detect(channels, now + BASE_EJECTION_NANOS));
+        assertFalse(bad.isEjected());
+    }
+
+    @Test
+    public void testEjectionBackoff() {
+        List<PolarisSubChannel> channels = channels(10);
+        OutlierDetector detector = new OutlierDetector(new OutlierDetectionConfig());
+        PolarisSubChannel bad = channels.get(0);
+
+        long now = System.nanoTime();
+        report(bad, Status.UNAVAILABLE, 5);
+        detector.detect(channels, now);
+        now += BASE_EJECTION_NANOS;
+        detector.detect(channels, now);
+        assertFalse(bad.isEjected());
+
+        // 第二次摘除的时长翻倍
+        report(bad, Status.UNAVAILABLE, 5);
+        detector.detect(channels, now);
+        assertTrue(bad.isEjected());
+        detector.detect(channels, now + BASE_EJECTION_NANOS);
+        assertTrue(bad.isEjected());
+        detector.detect(channels, now + BASE_EJECTION_NANOS * 2);
+        assertFalse(bad.isEjected());
+    }
+
+    @Test
+    public void testMaxEjectionPercent() {
+        List<PolarisSubChannel> channels = channels(10);
+        OutlierDetector detector = new OutlierDetector(new OutlierDetectionConfig());
+        for (PolarisSubChannel channel : channels.subList(0, 5)) {
+            report(channel, Status.UNAVAILABLE, 5);
+        }
+        detector.detect(channels, System.nanoTime());
+        assertEquals(1, channels.stream().filter(PolarisSubChannel::isEjected).count());
+    }
+
+    @Test
+    public void testBusinessErrorNotFailure() {
+        List<PolarisSubChannel> channels = channels(10);
+        OutlierDetector detector = new OutlierDetector(new OutlierDetectionConfig());
+        report(channels.get(0), Status.INVALID_ARGUMENT, 10);
+        assertFalse(detector.detect(channels, System.nanoTime()));
+        assertFalse(channels.get(0).isEjected());
+    }
+
+    @Test
+    public void testSuccessRateDeviation() {
+        List<PolarisSubChannel> channels = channels(10);
+        OutlierDetectionConfig config = new OutlierDetectionConfig();
+        config.setConsecutiveFailures(0);
+        OutlierDetector detector = new OutlierDetector(config);
+        for (PolarisSubChannel channel : channels) {
+            report(channel, Status.OK, 100);
+        }
+        PolarisSubChannel bad = channels.get(7);
+        for (int i = 0; i < 50; i++) {
+            report(bad, Status.UNAVAILABLE, 1);
+            report(bad, Status.OK, 1);
+        }
+        assertTrue(detector.detect(channels, System.nanoTime()));
+        assertTrue(bad.isEjected());
+        assertEquals(1, channels.stream().filter(PolarisSubChannel::isEjected).count());
+    }
+
+    @Test
+    public void testConcurrentReports() throws Exception {
+        PolarisSubChannel channel = channels(1).get(0);
+        int threads = 8;
+        int perThread = 10000;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            final Status status = i % 2 == 0 ? Status.OK : Status.UNAVAILABLE;
+            executor.execute(() -> {
+                try {
+                    start.await();
+                    report(channel, status, perThread);
+                } catch (InterruptedException ignore) {
+                    Thread.currentThread().interrupt();
+                } finally {
+                    done.countDown();
+                }
+            });
+        }
+        start.countDown();
+        assertTrue(done.await(10, TimeUnit.SECONDS));
+        executor.shutdown();
+
+        OutlierStats stats = channel.getOutlierStats();
+        stats.roll(10);
+        assertEquals((long) threads * perThread, stats.getWindowRequests());
+        assertEquals(0.5, stats.getWindowSuccessRate(), 1e-9);
+    }
+
+    @Test
+    public void testConfigEquals() {
+        // 负载均衡器通过比较配置判断是否需要重新调度离群检测
+        OutlierDetectionConfig config = new OutlierDetectionConfig();
+        OutlierDetectionConfig same = new OutlierDetectionConfig();
+        assertEquals(config, same);
+        assertEquals(config.hashCode(), same.hashCode());
+
+        same.setIntervalMills(config.getIntervalMills() * 2);
+        assertNotEquals(config, same);
+    }
+
+    private static void report(PolarisSubChannel channel, Status status, int times) {
+        for (int i = 0; i < times; i++) {
+            channel.getOutlierStats().onCallResult(status);
+        }
+    }
+
+    private static List<PolarisSubChannel> channels(int size) {
+        List<PolarisSubChannel> channels = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            DefaultInstance instance = new DefaultInstance();
+            instance.setId("instance-" + i);
+            instance.setHost("127.0.0.1");
+            instance.setPort(8000 + i);
+            instance.setWeight(100);
+            instance.setProtocol("grpc");
+            channels.add(new PolarisSubChannel(instance));
+        }
+        return channels;
+    }
+}
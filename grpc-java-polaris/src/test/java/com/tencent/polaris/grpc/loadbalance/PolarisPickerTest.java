@@ -0,0 +1,257 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import com.tencent.polaris.api.core.ConsumerAPI;
+import com.tencent.polaris.api.pojo.DefaultInstance;
+import com.tencent.polaris.api.rpc.ServiceRuleResponse;
+import com.tencent.polaris.grpc.util.Common;
+import com.tencent.polaris.router.api.core.RouterAPI;
+import com.tencent.polaris.router.api.rpc.ProcessLoadBalanceRequest;
+import com.tencent.polaris.router.api.rpc.ProcessLoadBalanceResponse;
+import com.tencent.polaris.router.api.rpc.ProcessRoutersRequest;
+import com.tencent.polaris.router.api.rpc.ProcessRoutersResponse;
+import io.grpc.Attributes;
+import io.grpc.CallOptions;
+import io.grpc.LoadBalancer.PickResult;
+import io.grpc.LoadBalancer.PickSubchannelArgs;
+import io.grpc.LoadBalancer.Subchannel;
+import io.grpc.Metadata;
+import io.grpc.MethodDescriptor;
+import org.junit.Assume;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class PolarisPickerTest {
+
+    private static final int PICK_TIMES = 20000;
+
+    private static final MethodDescriptor<String, String> METHOD = MethodDescriptor.<String, String>newBuilder()
+            .setType(MethodDescriptor.MethodType.UNARY)
+            .setFullMethodName(MethodDescriptor.generateFullMethodName("polaris.Hello", "SayHello"))
+            .setRequestMarshaller(new StringMarshaller())
+            .setResponseMarshaller(new StringMarshaller())
+            .build();
+
+    @Test
+    public void testPickFromSnapshot() {
+        PolarisPicker picker = buildPicker(3);
+        PickResult result = picker.pickSubchannel(new TestPickArgs());
+        assertTrue(result.getStatus().isOk());
+        assertNotNull(result.getSubchannel());
+        assertEquals(3, picker.getServiceInstances().getInstances().size());
+    }
+
+    @Test
+    public void testPickResultReused() {
+        PolarisPicker picker = buildPicker(1);
+        PickResult first = picker.pickSubchannel(new TestPickArgs());
+        PickResult second = picker.pickSubchannel(new TestPickArgs());
+        assertSame(first, second);
+        assertSame(first.getStreamTracerFactory(), second.getStreamTracerFactory());
+    }
+
+    @Test
+    public void testBalancerReusedAfterRouteCacheExpired() {
+        LoadBalanceConfig config = new LoadBalanceConfig();
+        config.setStrategy(LoadBalanceStrategy.MAGLEV);
+        config.setRouteCacheExpireMills(0);
+        PolarisPicker picker = buildPicker(3, config);
+        RouteResult first = picker.doRoute(new TestPickArgs());
+        RouteResult second = picker.doRoute(new TestPickArgs());
+        assertNotSame(first, second);
+        assertNotNull(first.getBalancer());
+        assertSame(first.getBalancer(), second.getBalancer());
+    }
+
+    @Test
+    public void testAllocationPerPickNotProportionalToInstances() {
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        Assume.assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean mxBean = (com.sun.management.ThreadMXBean) bean;
+        Assume.assumeTrue(mxBean.isThreadAllocatedMemorySupported());
+        mxBean.setThreadAllocatedMemoryEnabled(true);
+
+        long small = allocatedPerPick(mxBean, buildPicker(10));
+        long large = allocatedPerPick(mxBean, buildPicker(2000));
+
+        // 2000 个实例时如果每次 pick 都重建实例列表, 每次分配至少是 2000 个引用的大小
+        assertTrue(large < small + 1024, "small=" + small + ", large=" + large);
+    }
+
+    @Test
+    public void testStandbyFallbackUsesSameBalancer() {
+        AtomicInteger connects = new AtomicInteger();
+        Map<PolarisSubChannel, PolarisSubChannel> channels = new LinkedHashMap<>();
+        for (int i = 0; i < 3; i++) {
+            PolarisSubChannel channel = new PolarisSubChannel(new Subchannel() {
+                @Override
+                public void shutdown() {
+                }
+
+                @Override
+                public void requestConnection() {
+                    connects.incrementAndGet();
+                }
+
+                @Override
+                public Attributes getAttributes() {
+                    return Attributes.EMPTY;
+                }
+            }, instance(i));
+            channels.put(channel, channel);
+        }
+        PolarisSubChannel[] array = channels.keySet().toArray(new PolarisSubChannel[0]);
+        array[0].setStandby(true);
+        PolarisPicker picker = buildPicker(channels, new LoadBalanceConfig());
+
+        // SDK 负载均衡总是选择第一个候选实例, 第一个实例未连接时在已经连接的实例上重新选择, 而不是随机选择
+        PickResult result = picker.pickSubchannel(new TestPickArgs());
+        assertSame(array[1], result.getSubchannel());
+        assertEquals(1, connects.get());
+
+        // 没有已经连接的候选实例时等待下一个 picker
+        array[1].setStandby(true);
+        array[2].setStandby(true);
+        result = picker.pickSubchannel(new TestPickArgs());
+        assertNull(result.getSubchannel());
+        assertTrue(result.getStatus().isOk());
+    }
+
+    private static long allocatedPerPick(com.sun.management.ThreadMXBean mxBean, PolarisPicker picker) {
+        PickSubchannelArgs args = new TestPickArgs();
+        for (int i = 0; i < PICK_TIMES; i++) {
+            picker.pickSubchannel(args);
+        }
+        long threadId = Thread.currentThread().getId();
+        long before = mxBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < PICK_TIMES; i++) {
+            picker.pickSubchannel(args);
+        }
+        return (mxBean.getThreadAllocatedBytes(threadId) - before) / PICK_TIMES;
+    }
+
+    private static PolarisPicker buildPicker(int size) {
+        return buildPicker(size, new LoadBalanceConfig());
+    }
+
+    private static PolarisPicker buildPicker(int size, LoadBalanceConfig config) {
+        Map<PolarisSubChannel, PolarisSubChannel> channels = new LinkedHashMap<>();
+        for (int i = 0; i < size; i++) {
+            PolarisSubChannel channel = new PolarisSubChannel(instance(i));
+            channels.put(channel, channel);
+        }
+        return buildPicker(channels, config);
+    }
+
+    private static DefaultInstance instance(int i) {
+        DefaultInstance instance = new DefaultInstance();
+        instance.setId("instance-" + i);
+        instance.setHost("127.0.0." + (i % 255));
+        instance.setPort(8000 + i);
+        instance.setWeight(100);
+        instance.setProtocol("grpc");
+        return instance;
+    }
+
+    private static PolarisPicker buildPicker(Map<PolarisSubChannel, PolarisSubChannel> channels,
+            LoadBalanceConfig config) {
+        Attributes attributes = Attributes.newBuilder()
+                .set(Common.TARGET_NAMESPACE_KEY, "default")
+                .set(Common.TARGET_SERVICE_KEY, "polaris.Hello")
+                .build();
+
+        return new PolarisPicker(channels, channels.keySet(), null, consumerAPI(), routerAPI(),
+                new RoutePlanCache(consumerAPI()), config, null, attributes);
+    }
+
+    private static ConsumerAPI consumerAPI() {
+        return (ConsumerAPI) Proxy.newProxyInstance(PolarisPickerTest.class.getClassLoader(),
+                new Class<?>[]{ConsumerAPI.class}, (proxy, method, args) -> {
+                    if ("getServiceRule".equals(method.getName())) {
+                        return new ServiceRuleResponse(null);
+                    }
+                    return null;
+                });
+    }
+
+    private static RouterAPI routerAPI() {
+        return (RouterAPI) Proxy.newProxyInstance(PolarisPickerTest.class.getClassLoader(),
+                new Class<?>[]{RouterAPI.class}, (proxy, method, args) -> {
+                    if ("processRouters".equals(method.getName())) {
+                        return new ProcessRoutersResponse(((ProcessRoutersRequest) args[0]).getDstInstances());
+                    }
+                    if ("processLoadBalance".equals(method.getName())) {
+                        ProcessLoadBalanceRequest request = (ProcessLoadBalanceRequest) args[0];
+                        return new ProcessLoadBalanceResponse(request.getDstInstances().getInstances().get(0));
+                    }
+                    return null;
+                });
+    }
+
+    private static final class TestPickArgs extends PickSubchannelArgs {
+
+        private final Metadata headers = new Metadata();
+
+        @Override
+        public CallOptions getCallOptions() {
+            return CallOptions.DEFAULT;
+        }
+
+        @Override
+        public Metadata getHeaders() {
+            return headers;
+        }
+
+        @Override
+        public MethodDescriptor<?, ?> getMethodDescriptor() {
+            return METHOD;
+        }
+    }
+
+    private static final class StringMarshaller implements MethodDescriptor.Marshaller<String> {
+
+        @Override
+        public InputStream stream(String value) {
+            return new ByteArrayInputStream(value.getBytes(StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public String parse(InputStream stream) {
+            return "";
+        }
+    }
+}
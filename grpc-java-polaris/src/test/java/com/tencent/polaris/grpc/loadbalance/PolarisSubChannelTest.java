@@ -0,0 +1,60 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import com.tencent.polaris.api.pojo.DefaultInstance;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class PolarisSubChannelTest {
+
+    @Test
+    public void testSetInstanceReportsChange() {
+        PolarisSubChannel channel = new PolarisSubChannel(instance(100, "zone-a"));
+
+        // 只有健康检查相关的字段变化时不需要重建 picker
+        DefaultInstance unchanged = instance(100, "zone-a");
+        unchanged.setHealthy(false);
+        assertFalse(channel.setInstance(unchanged));
+
+        assertTrue(channel.setInstance(instance(50, "zone-a")));
+        assertTrue(channel.setInstance(instance(50, "zone-b")));
+
+        DefaultInstance metadata = instance(50, "zone-b");
+        metadata.setMetadata(Collections.singletonMap("env", "gray"));
+        assertTrue(channel.setInstance(metadata));
+    }
+
+    private static DefaultInstance instance(int weight, String zone) {
+        DefaultInstance instance = new DefaultInstance();
+        instance.setId("instance");
+        instance.setHost("127.0.0.1");
+        instance.setPort(8080);
+        instance.setWeight(weight);
+        instance.setRegion("region");
+        instance.setZone(zone);
+        instance.setCampus("campus");
+        return instance;
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import com.tencent.polaris.api.pojo.RouteArgument;
+import com.tencent.polaris.api.pojo.ServiceKey;
+import com.tencent.polaris.grpc.loadbalance.RoutePlanCache.RoutePlan;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class RouteResultCacheTest {
+
+    private static final String METHOD = "polaris.Hello/SayHello";
+
+    private final RoutePlan plan = new RoutePlan(1, Collections.emptyList(), "", "");
+
+    private final RouteResultCache cache = new RouteResultCache(RouteResultCache.DEFAULT_MAX_SIZE,
+            RouteResultCache.DEFAULT_EXPIRE_MILLS, LoadBalancerStats.of(new ServiceKey("default", "polaris.Hello")));
+
+    @Test
+    public void testHit() {
+        RouteResult result = emptyResult();
+        cache.put(plan, RouteResultCache.key(METHOD, labels("env", "gray")), result);
+        assertSame(result, cache.get(plan, RouteResultCache.key(METHOD, labels("env", "gray"))));
+    }
+
+    @Test
+    public void testHashCollision() {
+        // "Aa" 与 "BB" 的 hashCode 相同
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        RouteResultCache.RouteKey first = RouteResultCache.key(METHOD, labels("env", "Aa"));
+        RouteResultCache.RouteKey second = RouteResultCache.key(METHOD, labels("env", "BB"));
+        assertNotEquals(first, second);
+
+        cache.put(plan, first, emptyResult());
+        assertNull(cache.get(plan, second));
+    }
+
+    @Test
+    public void testMethodIsolated() {
+        cache.put(plan, RouteResultCache.key(METHOD, labels("env", "gray")), emptyResult());
+        assertNull(cache.get(plan, RouteResultCache.key("polaris.Hello/SayBye", labels("env", "gray"))));
+    }
+
+    @Test
+    public void testEvictExpiredWhenFull() throws InterruptedException {
+        RouteResultCache small = new RouteResultCache(2, 20,
+                LoadBalancerStats.of(new ServiceKey("default", "polaris.Hello")));
+        small.put(plan, RouteResultCache.key(METHOD, labels("env", "a")), emptyResult());
+        small.put(plan, RouteResultCache.key(METHOD, labels("env", "b")), emptyResult());
+
+        // 缓存已满并且没有过期的缓存项时不再接纳新的 key
+        small.put(plan, RouteResultCache.key(METHOD, labels("env", "c")), emptyResult());
+        assertNull(small.get(plan, RouteResultCache.key(METHOD, labels("env", "c"))));
+
+        // 过期的缓存项被清理后可以接纳新的 key
+        Thread.sleep(50);
+        RouteResult result = emptyResult();
+        small.put(plan, RouteResultCache.key(METHOD, labels("env", "c")), result);
+        assertSame(result, small.get(plan, RouteResultCache.key(METHOD, labels("env", "c"))));
+    }
+
+    private static RouteResult emptyResult() {
+        return new RouteResult(null, new PolarisSubChannel[0], null);
+    }
+
+    private static Set<RouteArgument> labels(String key, String value) {
+        Set<RouteArgument> arguments = new HashSet<>();
+        arguments.add(RouteArgument.buildCustom(key, value));
+        return arguments;
+    }
+}
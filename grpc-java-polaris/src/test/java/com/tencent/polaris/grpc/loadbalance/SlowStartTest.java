@@ -0,0 +1,111 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.loadbalance;
+
+import com.tencent.polaris.api.pojo.DefaultInstance;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class SlowStartTest {
+
+    private static final long WINDOW_MILLS = 10_000;
+
+    private static final long WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(WINDOW_MILLS);
+
+    @Test
+    public void testLinearRamp() {
+        LoadBalanceConfig config = config(1.0);
+        long readySince = System.nanoTime();
+        assertEquals(10, SlowStart.effectiveWeight(config, 100, readySince, readySince));
+        assertEquals(50, SlowStart.effectiveWeight(config, 100, readySince, readySince + WINDOW_NANOS / 2));
+        assertEquals(90, SlowStart.effectiveWeight(config, 100, readySince, readySince + WINDOW_NANOS * 9 / 10));
+        assertEquals(-1, SlowStart.effectiveWeight(config, 100, readySince, readySince + WINDOW_NANOS));
+    }
+
+    @Test
+    public void testAggression() {
+        long readySince = System.nanoTime();
+        long now = readySince + WINDOW_NANOS / 4;
+        int linear = SlowStart.effectiveWeight(config(1.0), 100, readySince, now);
+        int aggressive = SlowStart.effectiveWeight(config(2.0), 100, readySince, now);
+        assertEquals(25, linear);
+        assertEquals(50, aggressive);
+    }
+
+    @Test
+    public void testNotStarted() {
+        LoadBalanceConfig config = config(1.0);
+        long now = System.nanoTime();
+        assertEquals(-1, SlowStart.effectiveWeight(config, 100, 0, now));
+        assertEquals(-1, SlowStart.effectiveWeight(config, 0, now, now));
+        assertEquals(-1, SlowStart.effectiveWeight(new LoadBalanceConfig(), 100, now, now));
+    }
+
+    @Test
+    public void testNegativeNanoTime() {
+        LoadBalanceConfig config = config(1.0);
+        long readySince = -WINDOW_NANOS / 2;
+        assertEquals(50, SlowStart.effectiveWeight(config, 100, readySince, 0));
+        assertEquals(-1, SlowStart.effectiveWeight(config, 100, readySince, WINDOW_NANOS));
+    }
+
+    @Test
+    public void testMinWeight() {
+        LoadBalanceConfig config = config(1.0);
+        long readySince = System.nanoTime();
+        assertTrue(SlowStart.effectiveWeight(config, 1, readySince, readySince) >= 1);
+    }
+
+    @Test
+    public void testSubChannelWeight() {
+        DefaultInstance instance = new DefaultInstance();
+        instance.setId("instance-0");
+        instance.setWeight(100);
+        PolarisSubChannel channel = new PolarisSubChannel(instance);
+        assertEquals(100, channel.getWeight());
+
+        channel.markReady();
+        long readySince = channel.getReadySinceNanos();
+        assertTrue(readySince != 0);
+        channel.markReady();
+        assertEquals(readySince, channel.getReadySinceNanos());
+
+        channel.setSlowStartWeight(SlowStart.effectiveWeight(config(1.0), channel.getConfiguredWeight(), readySince,
+                readySince + WINDOW_NANOS / 2));
+        assertEquals(50, channel.getWeight());
+        assertEquals(100, channel.getConfiguredWeight());
+
+        channel.setSlowStartWeight(SlowStart.effectiveWeight(config(1.0), channel.getConfiguredWeight(), readySince,
+                readySince + WINDOW_NANOS));
+        assertEquals(100, channel.getWeight());
+    }
+
+    private static LoadBalanceConfig config(double aggression) {
+        LoadBalanceConfig config = new LoadBalanceConfig();
+        config.setSlowStartWindowMills(WINDOW_MILLS);
+        config.setSlowStartAggression(aggression);
+        config.setSlowStartMinWeightPercent(0.1);
+        return config;
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.metrics;
+
+import com.tencent.polaris.api.pojo.DefaultInstance;
+import com.tencent.polaris.grpc.util.ClientCallInfo;
+import org.junit.Test;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class ClientMetricsTest {
+
+    @Test
+    public void testReleaseInstance() {
+        ClientMetrics.acquireInstance("default", "polaris.Hello", "127.0.0.1", 8001);
+        ClientMetrics.acquireInstance("default", "polaris.Hello", "127.0.0.1", 8002);
+        Histogram hello = ClientMetrics.latency(callInfo("SayHello", "127.0.0.1", 8001));
+        hello.record(100);
+        ClientMetrics.latency(callInfo("SayBye", "127.0.0.1", 8001)).record(100);
+        ClientMetrics.latency(callInfo("SayHello", "127.0.0.1", 8002)).record(100);
+
+        ClientMetrics.releaseInstance("default", "polaris.Hello", "127.0.0.1", 8001);
+
+        assertTrue(hello.isRetired());
+        assertFalse(ClientMetrics.snapshot().keySet().stream()
+                .anyMatch(key -> "127.0.0.1:8001".equals(key.getInstance())));
+        assertTrue(ClientMetrics.snapshot().containsKey(
+                new ClientMetricKey("default", "polaris.Hello", "SayHello", "127.0.0.1:8002")));
+
+        // 释放之后残留的调用不会重新登记
+        assertTrue(ClientMetrics.latency(callInfo("SayHello", "127.0.0.1", 8001)).isRetired());
+        assertFalse(ClientMetrics.snapshot().keySet().stream()
+                .anyMatch(key -> "127.0.0.1:8001".equals(key.getInstance())));
+        ClientMetrics.releaseInstance("default", "polaris.Hello", "127.0.0.1", 8002);
+    }
+
+    @Test
+    public void testSharedInstance() {
+        // 两个 channel 的负载均衡器使用同一个实例, 其中一个释放时不影响另一个的统计
+        ClientMetrics.acquireInstance("default", "polaris.Hello", "127.0.0.1", 8003);
+        ClientMetrics.acquireInstance("default", "polaris.Hello", "127.0.0.1", 8003);
+        Histogram histogram = ClientMetrics.latency(callInfo("SayHello", "127.0.0.1", 8003));
+
+        ClientMetrics.releaseInstance("default", "polaris.Hello", "127.0.0.1", 8003);
+        assertFalse(histogram.isRetired());
+        assertSame(histogram, ClientMetrics.latency(callInfo("SayHello", "127.0.0.1", 8003)));
+
+        ClientMetrics.releaseInstance("default", "polaris.Hello", "127.0.0.1", 8003);
+        assertTrue(histogram.isRetired());
+    }
+
+    private static ClientCallInfo callInfo(String method, String host, int port) {
+        DefaultInstance instance = new DefaultInstance();
+        instance.setHost(host);
+        instance.setPort(port);
+        return ClientCallInfo.builder()
+                .method(method)
+                .instance(instance)
+                .targetNamespace("default")
+                .targetService("polaris.Hello")
+                .build();
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.metrics;
+
+import org.junit.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class HistogramTest {
+
+    @Test
+    public void testPercentile() {
+        Histogram histogram = new Histogram();
+        for (int i = 1; i <= 10000; i++) {
+            histogram.record(i);
+        }
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(10000, snapshot.getCount());
+        assertEquals(10000, snapshot.getMax());
+        assertWithin(5000, snapshot.getPercentile(50));
+        assertWithin(9900, snapshot.getPercentile(99));
+    }
+
+    @Test
+    public void testSnapshotAndReset() {
+        Histogram histogram = new Histogram();
+        histogram.record(100);
+        assertEquals(1, histogram.snapshotAndReset().getCount());
+        assertEquals(0, histogram.snapshot().getCount());
+        assertEquals(0, histogram.snapshot().getPercentile(99));
+    }
+
+    @Test
+    public void testConcurrentRecord() throws InterruptedException {
+        Histogram histogram = new Histogram();
+        Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int j = 0; j < 10000; j++) {
+                    histogram.record(10);
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        for (int i = 0; i < 40000; i++) {
+            histogram.record(1000);
+        }
+        // 竞争时分段写入的计数不能丢失, 否则分位数会偏向 1000
+        HistogramSnapshot snapshot = histogram.snapshot();
+        assertEquals(80000, snapshot.getCount());
+        assertEquals(10, snapshot.getPercentile(49));
+        assertWithin(1000, snapshot.getPercentile(51));
+    }
+
+    @Test
+    public void testBucketBounds() {
+        for (long value : new long[]{0, 31, 32, 33, 1000, 123456789L, 1L << 40}) {
+            int index = Histogram.index(value);
+            assertTrue(Histogram.lowerBound(index) <= value && value < Histogram.upperBound(index), "value=" + value);
+        }
+    }
+
+    private static void assertWithin(long expect, long actual) {
+        assertTrue(Math.abs(actual - expect) <= expect * 0.04, "expect=" + expect + ", actual=" + actual);
+    }
+}
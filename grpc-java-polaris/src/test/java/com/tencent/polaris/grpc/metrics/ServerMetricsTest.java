@@ -0,0 +1,50 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.metrics;
+
+import org.junit.Test;
+
+import java.util.Map;
+
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class ServerMetricsTest {
+
+    private static final String METHOD = "polaris.Hello/SayHello";
+
+    @Test
+    public void testExcessCallersFoldIntoOther() {
+        ServerCallMetrics first = ServerMetrics.of(METHOD, "default", "caller-0");
+        for (int i = 1; i < ServerMetrics.MAX_SIZE * 2; i++) {
+            ServerMetrics.of(METHOD, "default", "caller-" + i);
+        }
+        assertSame(first, ServerMetrics.of(METHOD, "default", "caller-0"));
+
+        ServerCallMetrics excess = ServerMetrics.of(METHOD, "default", "caller-" + ServerMetrics.MAX_SIZE * 3);
+        assertSame(ServerMetrics.of(METHOD, ServerMetrics.OTHER, ServerMetrics.OTHER), excess);
+        assertNotSame(first, excess);
+
+        Map<ServerMetricKey, ServerCallMetrics.Snapshot> snapshot = ServerMetrics.snapshot();
+        assertTrue(snapshot.size() <= ServerMetrics.MAX_SIZE + 1, "size=" + snapshot.size());
+        assertTrue(snapshot.containsKey(new ServerMetricKey(METHOD, ServerMetrics.OTHER, ServerMetrics.OTHER)));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.ratelimit;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class LocalRateLimiterTest {
+
+    private static final long DURATION = TimeUnit.SECONDS.toNanos(1);
+
+    private static final int MAX_AMOUNT = 10;
+
+    private static final long INTERVAL = DURATION / MAX_AMOUNT;
+
+    @Test
+    public void testBurstThenRefill() {
+        LocalRateLimiter.Bucket bucket = new LocalRateLimiter.Bucket(1);
+        long[] intervals = {INTERVAL};
+        long[] tolerances = {DURATION - INTERVAL};
+        long now = System.nanoTime();
+
+        for (int i = 0; i < MAX_AMOUNT; i++) {
+            assertTrue(bucket.acquire(intervals, tolerances, now), "call " + i);
+        }
+        assertFalse(bucket.acquire(intervals, tolerances, now));
+
+        assertTrue(bucket.acquire(intervals, tolerances, now + INTERVAL));
+        assertFalse(bucket.acquire(intervals, tolerances, now + INTERVAL));
+    }
+
+    @Test
+    public void testNegativeNanoTime() {
+        LocalRateLimiter.Bucket bucket = new LocalRateLimiter.Bucket(1);
+        long[] intervals = {INTERVAL};
+        long[] tolerances = {DURATION - INTERVAL};
+        long now = -DURATION * 5;
+
+        int passed = 0;
+        for (int i = 0; i < MAX_AMOUNT * 2; i++) {
+            if (bucket.acquire(intervals, tolerances, now)) {
+                passed++;
+            }
+        }
+        assertEquals(MAX_AMOUNT, passed);
+    }
+
+    @Test
+    public void testRejectedAmountReturnsEarlierTokens() {
+        LocalRateLimiter.Bucket bucket = new LocalRateLimiter.Bucket(2);
+        // 第一个 Amount 每秒 2 个, 第二个 Amount 每秒 1 个
+        long[] intervals = {DURATION / 2, DURATION};
+        long[] tolerances = {DURATION / 2, 0};
+        long now = System.nanoTime();
+
+        assertTrue(bucket.acquire(intervals, tolerances, now));
+        assertFalse(bucket.acquire(intervals, tolerances, now));
+
+        // 放开第二个 Amount 的限制, 被第二个 Amount 拒绝的请求不应该消耗第一个 Amount 的配额
+        long[] unlimited = {DURATION / 2, Long.MAX_VALUE / 2};
+        assertTrue(bucket.acquire(intervals, unlimited, now));
+        assertFalse(bucket.acquire(intervals, unlimited, now));
+    }
+
+    @Test
+    public void testZeroAmountRejectsAll() {
+        LocalRateLimiter.Bucket bucket = new LocalRateLimiter.Bucket(1);
+        assertFalse(bucket.acquire(new long[]{-1}, new long[]{0}, System.nanoTime()));
+    }
+
+    @Test
+    public void testIdleAfterRefill() {
+        LocalRateLimiter.Bucket bucket = new LocalRateLimiter.Bucket(1);
+        long[] intervals = {INTERVAL};
+        long[] tolerances = {DURATION - INTERVAL};
+        long now = System.nanoTime();
+        assertTrue(bucket.isIdle(now));
+
+        for (int i = 0; i < MAX_AMOUNT; i++) {
+            bucket.acquire(intervals, tolerances, now);
+        }
+        assertFalse(bucket.isIdle(now));
+        assertFalse(bucket.isIdle(now + DURATION - 1));
+        assertTrue(bucket.isIdle(now + DURATION));
+    }
+}
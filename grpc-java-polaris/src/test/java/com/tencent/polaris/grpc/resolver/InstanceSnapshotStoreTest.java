@@ -0,0 +1,103 @@
+/*
+ * Tencent is pleased to support the open source community by making Polaris available.
+ *
+ * Copyright (C) 2019 THL A29 Limited, a Tencent company. All rights reserved.
+ *
+ * Licensed under the BSD 3-Clause License (the "License"); you may not use this file except in
+ * compliance with the License. You may obtain a copy of the License at
+ *
+ * https://opensource.org/licenses/BSD-3-Clause
+ *
+ * Unless required by applicable law or agreed to in writing, software distributed under the License
+ * is distributed on an "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express
+ * or implied. See the License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package com.tencent.polaris.grpc.resolver;
+
+import com.tencent.polaris.api.pojo.DefaultInstance;
+import com.tencent.polaris.api.pojo.Instance;
+import com.tencent.polaris.api.pojo.ServiceKey;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+/**
+ * @author <a href="mailto:liaochuntao@live.com">liaochuntao</a>
+ */
+public class InstanceSnapshotStoreTest {
+
+    private static final ServiceKey SERVICE_KEY = new ServiceKey("default", "polaris.Hello");
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void testSaveAndLoad() {
+        InstanceSnapshotStore store = new InstanceSnapshotStore(folder.getRoot().toPath());
+        assertNull(store.load(SERVICE_KEY));
+
+        List<Instance> instances = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            DefaultInstance instance = new DefaultInstance();
+            instance.setId("instance-" + i);
+            instance.setHost("127.0.0." + i);
+            instance.setPort(8000 + i);
+            instance.setWeight(100);
+            instance.setProtocol("grpc");
+            instance.setRevision("revision-" + i);
+            instance.setMetadata(Collections.singletonMap("env", "test"));
+            instance.setHealthy(i != 1);
+            instance.setIsolated(i == 2);
+            instances.add(instance);
+        }
+        store.save(SERVICE_KEY, instances);
+
+        List<Instance> loaded = store.load(SERVICE_KEY);
+        assertEquals(3, loaded.size());
+        for (int i = 0; i < 3; i++) {
+            assertEquals(instances.get(i).getId(), loaded.get(i).getId());
+            assertEquals(instances.get(i).getHost(), loaded.get(i).getHost());
+            assertEquals(instances.get(i).getPort(), loaded.get(i).getPort());
+            assertEquals(instances.get(i).getRevision(), loaded.get(i).getRevision());
+            assertEquals("test", loaded.get(i).getMetadata().get("env"));
+            assertEquals(SERVICE_KEY.getService(), loaded.get(i).getService());
+            assertEquals(instances.get(i).isHealthy(), loaded.get(i).isHealthy());
+            assertEquals(instances.get(i).isIsolated(), loaded.get(i).isIsolated());
+        }
+    }
+
+    @Test
+    public void testIgnoreCorruptedSnapshot() throws IOException {
+        InstanceSnapshotStore store = new InstanceSnapshotStore(folder.getRoot().toPath());
+        DefaultInstance instance = new DefaultInstance();
+        instance.setId("instance");
+        instance.setHost("127.0.0.1");
+        instance.setPort(8080);
+        store.save(SERVICE_KEY, Collections.singletonList(instance));
+
+        List<Path> files;
+        try (Stream<Path> stream = Files.list(folder.getRoot().toPath())) {
+            files = stream.collect(Collectors.toList());
+        }
+        assertEquals(1, files.size());
+        byte[] bytes = Files.readAllBytes(files.get(0));
+        bytes[bytes.length - 1] ^= 0x7f;
+        Files.write(files.get(0), bytes);
+
+        assertNull(store.load(SERVICE_KEY));
+    }
+}
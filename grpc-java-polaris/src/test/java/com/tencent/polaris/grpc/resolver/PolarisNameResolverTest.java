@@ -18,12 +18,28 @@ package com.tencent.polaris.grpc.resolver;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
 import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
 
+import com.tencent.polaris.api.core.ConsumerAPI;
+import com.tencent.polaris.api.pojo.DefaultInstance;
+import com.tencent.polaris.api.pojo.DefaultServiceInstances;
+import com.tencent.polaris.api.pojo.ServiceKey;
+import com.tencent.polaris.api.rpc.InstancesResponse;
 import com.tencent.polaris.client.api.SDKContext;
 import com.tencent.polaris.factory.api.DiscoveryAPIFactory;
+import io.grpc.EquivalentAddressGroup;
+import io.grpc.NameResolver;
+import io.grpc.Status;
 import org.junit.Test;
 
+import java.lang.reflect.Proxy;
 import java.net.URI;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 /**
  * @author lixiaoshuang
@@ -40,4 +56,78 @@ public class PolarisNameResolverTest {
         assertEquals("grpc-demo-java", serviceAuthority);
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testInvalidCoalesceWindow() throws Exception {
+        PolarisNameResolver valid = new PolarisNameResolver(
+                new URI("polaris://grpc-demo-java?coalesce_window=500"), null, null);
+        assertEquals(500, valid.getCoalesceWindowMills());
+
+        PolarisNameResolver invalid = new PolarisNameResolver(
+                new URI("polaris://grpc-demo-java?coalesce_window=abc"), null, null);
+        assertEquals(100, invalid.getCoalesceWindowMills());
+    }
+
+    @Test
+    public void testInvalidPanicThreshold() throws Exception {
+        assertEquals(30, new PolarisNameResolver(
+                new URI("polaris://grpc-demo-java?panic_threshold=30"), null, null).getPanicThreshold());
+        assertEquals(0, new PolarisNameResolver(
+                new URI("polaris://grpc-demo-java?panic_threshold=abc"), null, null).getPanicThreshold());
+        assertEquals(0, new PolarisNameResolver(
+                new URI("polaris://grpc-demo-java?panic_threshold=150"), null, null).getPanicThreshold());
+        assertEquals(0, new PolarisNameResolver(
+                new URI("polaris://grpc-demo-java?panic_threshold=-1"), null, null).getPanicThreshold());
+    }
+
+    @Test
+    public void testStartDoesNotBlockOnFetch() throws Exception {
+        CountDownLatch release = new CountDownLatch(1);
+        ConsumerAPI consumerAPI = (ConsumerAPI) Proxy.newProxyInstance(getClass().getClassLoader(),
+                new Class<?>[]{ConsumerAPI.class}, (proxy, method, args) -> {
+                    switch (method.getName()) {
+                        case "getHealthyInstances":
+                            release.await();
+                            DefaultInstance instance = new DefaultInstance();
+                            instance.setId("slow-0");
+                            instance.setHost("127.0.0.1");
+                            instance.setPort(8080);
+                            instance.setWeight(100);
+                            instance.setProtocol("grpc");
+                            return new InstancesResponse(new DefaultServiceInstances(
+                                    new ServiceKey("default", "slow-service"), Collections.singletonList(instance)));
+                        case "watchService":
+                        case "unWatchService":
+                            return true;
+                        default:
+                            return null;
+                    }
+                });
+        BlockingQueue<List<EquivalentAddressGroup>> results = new LinkedBlockingQueue<>();
+        NameResolver.Listener2 listener = new NameResolver.Listener2() {
+            @Override
+            public void onResult(NameResolver.ResolutionResult resolutionResult) {
+                results.add(resolutionResult.getAddresses());
+            }
+
+            @Override
+            public void onError(Status error) {
+            }
+        };
+        URI targetUri = new URI("polaris://slow-service?namespace=default");
+        PolarisNameResolver first = new PolarisNameResolver(targetUri, null, consumerAPI);
+        PolarisNameResolver second = new PolarisNameResolver(targetUri, null, consumerAPI);
+
+        // 拉取阻塞时, 两个 resolver 的 start 都不会被阻塞, 也不会收到地址
+        first.start(listener);
+        second.start(listener);
+        assertNull(results.poll());
+
+        release.countDown();
+        assertEquals(1, results.poll(5, TimeUnit.SECONDS).size());
+        assertEquals(1, results.poll(5, TimeUnit.SECONDS).size());
+
+        first.shutdown();
+        second.shutdown();
+    }
+
+}